@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks that the cached day labels are the ones Utility formats, also after the locale or the
+    time zone changed, and logs what a cached label costs.
+ */
+public class TestDayLabelCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayLabelCache.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int CALLS = 10000;
+
+    private Locale mLocale;
+    private TimeZone mTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+        mTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        TimeZone.setDefault(mTimeZone);
+        DayLabelCache.getInstance(mContext).invalidate();
+        super.tearDown();
+    }
+
+    private void checkLabels(String message) {
+        long now = System.currentTimeMillis();
+        for (int i = -1; i < 20; i++) {
+            long date = now + i * DAY_IN_MILLIS;
+            // Twice, so that the second call comes from the cache
+            for (int pass = 0; pass < 2; pass++) {
+                assertEquals(message, Utility.formatFriendlyDayString(mContext, date, false),
+                        Utility.getFriendlyDayString(mContext, date, false));
+                assertEquals(message, Utility.formatFriendlyDayString(mContext, date, true),
+                        Utility.getFriendlyDayString(mContext, date, true));
+                assertEquals(message, Utility.formatFullFriendlyDayString(mContext, date),
+                        Utility.getFullFriendlyDayString(mContext, date));
+                assertEquals(message, Utility.formatDayName(mContext, date),
+                        Utility.getDayName(mContext, date));
+                assertEquals(message, Utility.formatMonthDay(date),
+                        Utility.getFormattedMonthDay(mContext, date));
+            }
+        }
+    }
+
+    public void testLabelsMatchTheFormatting() {
+        checkLabels("Error: Cached label differs from the formatted one");
+    }
+
+    public void testLocaleChange() {
+        Locale.setDefault(Locale.US);
+        checkLabels("Error: Cached label differs in the US locale");
+        Locale.setDefault(Locale.FRANCE);
+        checkLabels("Error: Cached label was kept after the locale changed");
+    }
+
+    public void testTimeZoneChange() {
+        // A day apart for most of the day
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        DayLabelCache.getInstance(mContext).invalidate();
+        checkLabels("Error: Cached label differs east of the date line");
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        // What the ACTION_TIMEZONE_CHANGED receiver does
+        DayLabelCache.getInstance(mContext).invalidate();
+        checkLabels("Error: Cached label was kept after the time zone changed");
+    }
+
+    /*
+        Not a pass/fail test: logs the time and the allocations of formatting the labels of a
+        forecast list, against getting them from the cache.
+     */
+    // Debug's allocation counters are deprecated, but nothing else counts a thread's allocations
+    @SuppressWarnings("deprecation")
+    public void testLabelBenchmark() {
+        long now = System.currentTimeMillis();
+        long[] dates = new long[14];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = now + i * DAY_IN_MILLIS;
+        }
+        DayLabelCache.getInstance(mContext).invalidate();
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                Utility.formatFriendlyDayString(mContext, dates[i % dates.length], false);
+            }
+            long formatNanos = System.nanoTime() - start;
+            int formatAllocations = Debug.getThreadAllocCount();
+
+            // Fill the cache first
+            for (long date : dates) {
+                Utility.getFriendlyDayString(mContext, date, false);
+            }
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                Utility.getFriendlyDayString(mContext, dates[i % dates.length], false);
+            }
+            long cachedNanos = System.nanoTime() - start;
+            int cachedAllocations = Debug.getThreadAllocCount();
+
+            Log.d(LOG_TAG, CALLS + " day labels: formatted " + (formatNanos / CALLS) + "ns and "
+                    + formatAllocations + " allocations, cached " + (cachedNanos / CALLS)
+                    + "ns and " + cachedAllocations + " allocations");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
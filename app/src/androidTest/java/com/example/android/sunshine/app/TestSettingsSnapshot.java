@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the settings snapshot agrees with the SharedPreferences, and that it has been
+    updated by the time its listeners hear about a change.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mLocation = mPrefs.getString(mLocationKey,
+                mContext.getString(R.string.pref_location_default));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mLocationKey, mLocation).commit();
+        super.tearDown();
+    }
+
+    public void testMatchesThePreferences() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        assertEquals(mLocation, settings.location);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_saved_locations_key), ""),
+                settings.savedLocations);
+
+        String metricUnits = mContext.getString(R.string.pref_units_metric);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits), settings.metric);
+
+        String sunshineArtPack = mContext.getString(R.string.pref_art_pack_sunshine);
+        String artPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        assertEquals(artPack, settings.artPack);
+        assertEquals(artPack.equals(sunshineArtPack), settings.localGraphics);
+
+        assertEquals(mPrefs.getInt(mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN), settings.locationStatus);
+    }
+
+    public void testListenersSeeTheChange() throws Exception {
+        final CountDownLatch changed = new CountDownLatch(1);
+        final String[] seenLocation = new String[1];
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        if (mLocationKey.equals(key)) {
+                            seenLocation[0] = Utility.getPreferredLocation(mContext);
+                            changed.countDown();
+                        }
+                    }
+                };
+        SettingsSnapshot.registerListener(mContext, listener);
+        try {
+            String location = TEST_LOCATION.equals(mLocation) ? TEST_LOCATION + "0" : TEST_LOCATION;
+            mPrefs.edit().putString(mLocationKey, location).commit();
+            assertTrue("Error: The listener was not called",
+                    changed.await(5, TimeUnit.SECONDS));
+            assertEquals("Error: The listener saw the old location", location, seenLocation[0]);
+            assertEquals(location, Utility.getPreferredLocation(mContext));
+        } finally {
+            SettingsSnapshot.unregisterListener(listener);
+        }
+    }
+}
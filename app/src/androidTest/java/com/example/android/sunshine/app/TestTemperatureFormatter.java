@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks that the cached temperatures read exactly like String.format() has always formatted
+    them, in both units, and logs what a formatted temperature costs before and after.
+ */
+public class TestTemperatureFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTemperatureFormatter.class.getSimpleName();
+
+    private static final int CALLS = 10000;
+
+    // Rounding boundaries and the odd values the format has its own opinion about
+    private static final double[] SPECIAL_VALUES = {
+            0.0, -0.0, 0.4, -0.4, 0.5, -0.5, 2.5, -2.5, 0.49999999999999994, -0.49999999999999994,
+            99.5, -99.5, 100.5, -100.5, 150.49, 150.5, 1000.0, -273.15,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setUnits(mUnits);
+        super.tearDown();
+    }
+
+    // Changes the unit preference and waits for the formatter to hear about it
+    private void setUnits(final String units) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_units_key), units)
+                .commit();
+        final boolean metric = units.equals(mContext.getString(R.string.pref_units_metric));
+        final String expected = legacyFormatTemperature(metric, 20.0);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return expected.equals(Utility.formatTemperature(mContext, 20.0));
+            }
+        }.run();
+    }
+
+    // Utility.isMetric() as it was before the settings snapshot
+    private boolean legacyIsMetric() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+    }
+
+    // Utility.formatTemperature() as it was before the cache, without reading the preference
+    private String legacyFormatTemperature(boolean metric, double temperature) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    private void checkUnits(String units) {
+        setUnits(units);
+        boolean metric = Utility.isMetric(mContext);
+        for (int tenths = -1000; tenths <= 1000; tenths++) {
+            double temperature = tenths / 10.0;
+            assertEquals("Error: Formatted " + temperature + " differently",
+                    legacyFormatTemperature(metric, temperature),
+                    Utility.formatTemperature(mContext, temperature));
+        }
+        for (double temperature : SPECIAL_VALUES) {
+            assertEquals("Error: Formatted " + temperature + " differently",
+                    legacyFormatTemperature(metric, temperature),
+                    Utility.formatTemperature(mContext, temperature));
+        }
+    }
+
+    public void testMetric() {
+        checkUnits(mContext.getString(R.string.pref_units_metric));
+    }
+
+    public void testImperial() {
+        checkUnits(mContext.getString(R.string.pref_units_imperial));
+    }
+
+    /*
+        Not a pass/fail test: logs the time and the allocations per call of the old way, which
+        read the preference and formatted every time, against the cached formatter.
+     */
+    // Counts allocations with Debug's deprecated counters, for lack of a replacement
+    @SuppressWarnings("deprecation")
+    public void testFormatBenchmark() {
+        double[] temperatures = new double[28];
+        for (int i = 0; i < temperatures.length; i++) {
+            temperatures[i] = 5.3 + i * 0.9;
+        }
+        // Fill the cache first
+        for (double temperature : temperatures) {
+            Utility.formatTemperature(mContext, temperature);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                legacyFormatTemperature(legacyIsMetric(),
+                        temperatures[i % temperatures.length]);
+            }
+            long legacyNanos = System.nanoTime() - start;
+            int legacyAllocations = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                Utility.formatTemperature(mContext, temperatures[i % temperatures.length]);
+            }
+            long cachedNanos = System.nanoTime() - start;
+            int cachedAllocations = Debug.getThreadAllocCount();
+
+            Log.d(LOG_TAG, CALLS + " temperatures: before " + (legacyNanos / CALLS) + "ns and "
+                    + ((float) legacyAllocations / CALLS) + " allocations per call, cached "
+                    + (cachedNanos / CALLS) + "ns and "
+                    + ((float) cachedAllocations / CALLS) + " allocations per call");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+/*
+    Checks that the art cache decodes art close to the size it is asked for, and hands out the
+    same bitmap to everyone asking for about the same size.
+ */
+public class TestWeatherArtCache extends AndroidTestCase {
+
+    public void testBuckets() {
+        assertEquals(32, WeatherArtCache.toBucket(0));
+        assertEquals(32, WeatherArtCache.toBucket(1));
+        assertEquals(32, WeatherArtCache.toBucket(32));
+        assertEquals(64, WeatherArtCache.toBucket(33));
+        assertEquals(128, WeatherArtCache.toBucket(120));
+    }
+
+    public void testSampleSize() {
+        assertEquals(1, WeatherArtCache.getSampleSize(100, 100, 100, 100));
+        assertEquals(1, WeatherArtCache.getSampleSize(100, 100, 51, 51));
+        assertEquals(2, WeatherArtCache.getSampleSize(100, 100, 50, 50));
+        assertEquals(4, WeatherArtCache.getSampleSize(512, 512, 96, 128));
+        assertEquals(1, WeatherArtCache.getSampleSize(100, 100, 200, 200));
+    }
+
+    public void testFallbackIsSharedAndDownsampled() {
+        WeatherArtCache cache = WeatherArtCache.getInstance(mContext);
+        Bitmap art = cache.get(null, R.drawable.art_clear, 40, 40);
+        assertNotNull("Error: The fallback art wasn't decoded", art);
+        assertSame("Error: The same size in the same bucket decoded the art again",
+                art, cache.get(null, R.drawable.art_clear, 50, 50));
+        assertTrue("Error: The art was decoded larger than it needed to be",
+                art.getWidth() <= 2 * WeatherArtCache.toBucket(40));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the forecast sent to the watch reads back as it was written, and that its
+    checksum follows its content.
+ */
+public class TestWeatherPayload extends AndroidTestCase {
+
+    private static final int TEST_JULIAN_DAY = 2457400;
+
+    private static List<WeatherPayload.Day> createDays(int count) {
+        List<WeatherPayload.Day> days = new ArrayList<WeatherPayload.Day>();
+        for (int i = 0; i < count; i++) {
+            days.add(new WeatherPayload.Day(TEST_JULIAN_DAY + i, 800 + i, 21.5 - i, -3.26 + i,
+                    i == 0 ? "Clear" : "Ciel dégagé"));
+        }
+        return days;
+    }
+
+    public void testRoundTrip() throws IOException {
+        WeatherPayload payload = new WeatherPayload(createDays(WeatherPayload.MAX_DAYS));
+        WeatherPayload read = WeatherPayload.fromBytes(payload.toBytes());
+        assertEquals(payload.days.size(), read.days.size());
+        for (int i = 0; i < payload.days.size(); i++) {
+            WeatherPayload.Day written = payload.days.get(i);
+            WeatherPayload.Day day = read.days.get(i);
+            assertEquals(written.julianDay, day.julianDay);
+            assertEquals(written.weatherId, day.weatherId);
+            assertEquals(written.high, day.high);
+            assertEquals(written.low, day.low);
+            assertEquals(written.description, day.description);
+        }
+        assertEquals(-3.3, read.days.get(0).low);
+        assertSame(read.days.get(2), read.getDay(TEST_JULIAN_DAY + 2));
+        assertNull(read.getDay(TEST_JULIAN_DAY - 1));
+    }
+
+    public void testKeepsAtMostMaxDays() {
+        WeatherPayload payload = new WeatherPayload(createDays(WeatherPayload.MAX_DAYS + 3));
+        assertEquals(WeatherPayload.MAX_DAYS, payload.days.size());
+    }
+
+    public void testHashFollowsContent() {
+        byte[] bytes = new WeatherPayload(createDays(3)).toBytes();
+        assertEquals(WeatherPayload.hash(bytes),
+                WeatherPayload.hash(new WeatherPayload(createDays(3)).toBytes()));
+
+        List<WeatherPayload.Day> days = createDays(3);
+        WeatherPayload.Day last = days.get(2);
+        days.set(2, new WeatherPayload.Day(last.julianDay, last.weatherId, last.high + 1,
+                last.low, last.description));
+        assertFalse("Error: A different forecast has the same hash",
+                WeatherPayload.hash(bytes) == WeatherPayload.hash(new WeatherPayload(days).toBytes()));
+    }
+
+    public void testRejectsUnknownVersion() {
+        byte[] bytes = new WeatherPayload(createDays(1)).toBytes();
+        bytes[0] = 2;
+        try {
+            WeatherPayload.fromBytes(bytes);
+            fail("Error: Read a payload of an unknown version");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testRejectsTruncatedPayload() {
+        byte[] bytes = new WeatherPayload(createDays(2)).toBytes();
+        byte[] truncated = new byte[bytes.length - 3];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            WeatherPayload.fromBytes(truncated);
+            fail("Error: Read a truncated payload");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Measures how long the forecast query takes while a sync-sized write is in progress.  With
+    write-ahead logging the query reads the last committed rows on its own connection instead of
+    waiting for the write to commit.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int ROWS_TO_WRITE = 10000;
+    private static final int READS = 50;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // How long the writer keeps its transaction open for the reader at most
+    private static final long WRITER_HOLD_MILLIS = 3000;
+    // Reads during the write must be well under that
+    private static final long MAX_READ_MILLIS = 1000;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testReadsDuringBulkInsert() throws Exception {
+        final long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId)) != -1);
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final long[] writeMillis = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                db.beginTransaction();
+                WeatherUpsert upsert = new WeatherUpsert(db);
+                try {
+                    for (int i = 1; i <= ROWS_TO_WRITE; i++) {
+                        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+                        values.put(WeatherEntry.COLUMN_DATE,
+                                TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+                        upsert.upsert(values);
+                    }
+                    writeMillis[0] = (System.nanoTime() - start) / 1000000;
+                    // Keep the transaction open while the reader measures
+                    writing.countDown();
+                    readsDone.await(WRITER_HOLD_MILLIS, TimeUnit.MILLISECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    // roll back
+                } finally {
+                    upsert.close();
+                    db.endTransaction();
+                }
+            }
+        }, "writer");
+        writer.start();
+        assertTrue(writing.await(60, TimeUnit.SECONDS));
+
+        long maxNanos = 0;
+        long totalNanos = 0;
+        int rowsSeen = 0;
+        for (int i = 0; i < READS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationRowId)}, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            rowsSeen = cursor.getCount();
+            cursor.close();
+            long nanos = System.nanoTime() - start;
+            maxNanos = Math.max(maxNanos, nanos);
+            totalNanos += nanos;
+        }
+        readsDone.countDown();
+        writer.join();
+
+        Log.d(LOG_TAG, "Writing " + ROWS_TO_WRITE + " rows took " + writeMillis[0]
+                + "ms; reads during the write took " + (totalNanos / READS / 1000)
+                + "us avg, " + (maxNanos / 1000) + "us max");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertEquals("Error: Reader saw rows that were not committed yet", 1, rowsSeen);
+            assertTrue("Error: Reads waited for the write to commit",
+                    maxNanos / 1000000 < MAX_READ_MILLIS);
+        }
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(ROWS_TO_WRITE + 1, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+}
@@ -177,6 +177,48 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        The forecast queries must find their rows through indexes, and the list of days through
+        the location and date index in particular.  Scanning a table here means that an index
+        went missing or stopped matching the provider's queries.
+     */
+    public void testQueryPlans() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+        // ForecastFragment's list of days
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null, sortOrder, null);
+        String plan = checkQueryPlan(db, sql, new String[]{TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE)});
+        assertTrue("Error: The list of days doesn't use the location and date index: " + plan,
+                plan.contains(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+
+        // DetailFragment's and the widgets' single day
+        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        checkQueryPlan(db, sql, new String[]{TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE)});
+
+        dbHelper.close();
+    }
+
+    // Fails if the query scans a table, and returns its plan
+    private String checkQueryPlan(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        int detailIndex = c.getColumnIndex("detail");
+        StringBuilder plan = new StringBuilder();
+        while (c.moveToNext()) {
+            String detail = c.getString(detailIndex);
+            assertFalse("Error: Query scans a table: " + detail + " in " + sql,
+                    detail.startsWith("SCAN"));
+            plan.append(detail).append('\n');
+        }
+        c.close();
+        return plan.toString();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Upgrades a database from every version that WeatherDbHelper can still migrate, and checks
+    that it ends up with the same schema as a new database while keeping its rows.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    // The schemas as they shipped, starting at WeatherDbHelper.OLDEST_MIGRATABLE_VERSION.  Never
+    // change one of these; add the new version's schema when adding a migration.
+    private static final String[][] SCHEMAS = {
+            // version 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+                            + "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, "
+                            + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                            + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            }
+    };
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testMigrationsAreComplete() {
+        int steps = WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+        assertEquals("Error: Every version needs exactly one migration",
+                steps, WeatherDbHelper.MIGRATIONS.length);
+        for (int i = 0; i < steps; i++) {
+            assertEquals("Error: Migrations out of order",
+                    WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i + 1,
+                    WeatherDbHelper.MIGRATIONS[i].version);
+        }
+        assertEquals("Error: Every version that can be migrated needs its schema here",
+                steps, SCHEMAS.length);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        String expectedSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        for (int i = 0; i < SCHEMAS.length; i++) {
+            int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i;
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+            SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                    Context.MODE_PRIVATE, null);
+            for (String statement : SCHEMAS[i]) {
+                db.execSQL(statement);
+            }
+            // These only use columns that every migratable version has
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    locationValues);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    weatherValues);
+            db.setVersion(version);
+            db.close();
+
+            dbHelper = new WeatherDbHelper(mContext);
+            db = dbHelper.getWritableDatabase();
+            assertEquals("Error: Upgrading from version " + version + " gave another schema",
+                    expectedSchema, describeSchema(db));
+
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: Upgrading from version " + version
+                    + " lost the location", cursor, locationValues);
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: Upgrading from version " + version + " changed the row id",
+                    weatherRowId,
+                    cursor.getLong(cursor.getColumnIndex(WeatherContract.WeatherEntry._ID)));
+            TestUtilities.validateCursor("Error: Upgrading from version " + version
+                    + " lost the forecast", cursor, weatherValues);
+            dbHelper.close();
+        }
+    }
+
+    public void testOlderVersionsAreRebuilt() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        String expectedSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, forecast TEXT)");
+        db.execSQL("INSERT INTO weather (forecast) VALUES ('Asteroids')");
+        db.setVersion(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+        assertEquals(expectedSchema, describeSchema(db));
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    // Lists the columns and indexes of our tables, in a stable order
+    static String describeSchema(SQLiteDatabase db) {
+        String[] tables = {
+                WeatherContract.LocationEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.TABLE_NAME
+        };
+        StringBuilder schema = new StringBuilder();
+        for (String table : tables) {
+            schema.append(table).append(":\n");
+            Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (c.moveToNext()) {
+                schema.append("  column ")
+                        .append(c.getString(c.getColumnIndex("name"))).append(' ')
+                        .append(c.getString(c.getColumnIndex("type")))
+                        .append(" notnull=").append(c.getInt(c.getColumnIndex("notnull")))
+                        .append(" pk=").append(c.getInt(c.getColumnIndex("pk"))).append('\n');
+            }
+            c.close();
+
+            List<String> indexes = new ArrayList<String>();
+            c = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (c.moveToNext()) {
+                String index = c.getString(c.getColumnIndex("name"));
+                StringBuilder description = new StringBuilder("  index ").append(index)
+                        .append(" unique=").append(c.getInt(c.getColumnIndex("unique")))
+                        .append(" (");
+                Cursor columns = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                while (columns.moveToNext()) {
+                    description.append(' ').append(columns.getString(columns.getColumnIndex("name")));
+                }
+                columns.close();
+                indexes.add(description.append(" )\n").toString());
+            }
+            c.close();
+            Collections.sort(indexes);
+            for (String index : indexes) {
+                schema.append(index);
+            }
+        }
+        return schema.toString();
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -30,6 +32,9 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +517,195 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Stores two locations and their forecasts the way a multi-location sync does: in one batch,
+    // with each forecast referring back to the insert of its location.
+    public void testApplyBatch() throws Exception {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        ContentValues southPole = new ContentValues(northPole);
+        southPole.put(LocationEntry.COLUMN_LOCATION_SETTING, "99999");
+        southPole.put(LocationEntry.COLUMN_CITY_NAME, "South Pole");
+        ContentValues[] locations = {northPole, southPole};
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues location : locations) {
+            int locationOperation = operations.size();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(location).build());
+            for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationOperation)
+                        .build());
+            }
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        for (ContentValues location : locations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(
+                            location.getAsString(LocationEntry.COLUMN_LOCATION_SETTING)),
+                    null,
+                    null,
+                    null,
+                    WeatherEntry.COLUMN_DATE + " ASC"
+            );
+            assertEquals("Error: Wrong number of forecasts stored for "
+                            + location.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                    BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.moveToFirst();
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating location",
+                    cursor, location);
+            cursor.close();
+        }
+    }
+
+    // Storing the same forecast twice must leave the rows, and their _ids, alone; storing a
+    // changed day must update that row in place.
+    public void testBulkInsertUpsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues));
+        long[] ids = queryWeatherIds();
+
+        assertEquals("Error: Identical rows were written again", 0,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        createBulkInsertWeatherValues(locationRowId)));
+        assertTrue("Error: Row ids changed", Arrays.equals(ids, queryWeatherIds()));
+
+        weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        weatherValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        assertEquals("Error: Only the changed row should be written", 1,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues));
+        assertTrue("Error: Updated row got a new id", Arrays.equals(ids, queryWeatherIds()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(ids[3])},
+                null
+        );
+        TestUtilities.validateCursor("testBulkInsertUpsert.  Error validating updated row",
+                cursor, weatherValues[3]);
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    // Builds the batch a sync applies: every day of the forecast, then the removal of past days
+    private static ArrayList<ContentProviderOperation> createSyncBatch(ContentValues[] forecast) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues weatherValues : forecast) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+        return operations;
+    }
+
+    // A sync's inserts and delete must reach the forecast list as a single notification, so that
+    // its loader queries once per sync.
+    public void testSyncBatchNotifiesOnce() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues weatherValues : forecast) {
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+
+        // Registered like the cursor of ForecastFragment's loader
+        TestUtilities.TestContentObserver forecastObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE), true, forecastObserver);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncBatch(forecast));
+
+        int notifications = forecastObserver.waitForNotificationsAndCount(1000);
+        mContext.getContentResolver().unregisterContentObserver(forecastObserver);
+        assertEquals("Error: The sync batch should notify the forecast exactly once",
+                1, notifications);
+    }
+
+    // A sync that finds the forecast unchanged must not make anybody query again.
+    public void testUnchangedSyncBatchDoesNotNotify() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        // Only future days, so that the delete has nothing to remove either
+        for (ContentValues weatherValues : forecast) {
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE) + 1000 * 60 * 60 * 24);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncBatch(forecast));
+
+        Thread.sleep(1000);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+        assertEquals("Error: An unchanged forecast notified observers",
+                0, weatherObserver.mChangeCount);
+        for (int i = 0; i < forecast.length; i++) {
+            assertNull("Error: An unchanged row was reported as written", results[i].uri);
+        }
+    }
+
+    // A batch may write the same row twice: only the operation that found it unchanged may be
+    // reported as writing nothing, or the sync would miss the change.
+    public void testBatchReportsUnchangedInsertsByOperation() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < 2; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues).build());
+        }
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertNotNull("Error: The insert that changed the row was reported as unchanged",
+                results[0].uri);
+        assertNull("Error: The insert that found the row unchanged was reported as written",
+                results[1].uri);
+        assertEquals(0, results[1].count.intValue());
+    }
 }
@@ -122,6 +122,7 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -143,6 +144,7 @@ public class TestUtilities extends AndroidTestCase {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         public void waitForNotificationOrFail() {
@@ -158,6 +160,20 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        // Waits for the first notification, then for any that follow within quietMillis, and
+        // returns how many there were
+        public int waitForNotificationsAndCount(long quietMillis) throws InterruptedException {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mContentChanged;
+                }
+            }.run();
+            Thread.sleep(quietMillis);
+            mHT.quit();
+            return mChangeCount;
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the compiled weather upsert against the database directly, and logs how fast it
+    writes compared to SQLiteDatabase.insert().
+ */
+public class TestWeatherUpsert extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherUpsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues row = TestUtilities.createWeatherValues(mLocationRowId);
+            row.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            row.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i % 20);
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    private int upsert(WeatherUpsert upsert, ContentValues values) {
+        mDb.beginTransaction();
+        try {
+            int outcome = upsert.upsert(values);
+            mDb.setTransactionSuccessful();
+            return outcome;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    public void testUpsertOutcomes() {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        assertTrue(WeatherUpsert.canUpsert(values));
+
+        WeatherUpsert upsert = new WeatherUpsert(mDb);
+        try {
+            assertEquals(WeatherUpsert.INSERTED, upsert(upsert, values));
+            long rowId = upsert.getRowId();
+            assertTrue("Error: No row id for the inserted row", rowId > 0);
+
+            assertEquals(WeatherUpsert.UNCHANGED,
+                    upsert(upsert, TestUtilities.createWeatherValues(mLocationRowId)));
+            assertEquals(rowId, upsert.getRowId());
+
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+            assertEquals(WeatherUpsert.UPDATED, upsert(upsert, values));
+            assertEquals("Error: Updated row got a new id", rowId, upsert.getRowId());
+        } finally {
+            upsert.close();
+        }
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("testUpsertOutcomes.  Error validating the stored row",
+                cursor, values);
+    }
+
+    public void testIncompleteRowsTakeTheGenericPath() {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.remove(WeatherEntry.COLUMN_DEGREES);
+        assertFalse(WeatherUpsert.canUpsert(values));
+
+        values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.putNull(WeatherEntry.COLUMN_DEGREES);
+        assertFalse(WeatherUpsert.canUpsert(values));
+    }
+
+    /*
+        Not a pass/fail test: logs rows per second for SQLiteDatabase.insert(), for the compiled
+        upsert into an empty table, and for the compiled upsert of rows that are all unchanged.
+     */
+    public void testWriteBenchmark() {
+        int[] rowCounts = {14, 100, 10000};
+        for (int count : rowCounts) {
+            ContentValues[] rows = createRows(count);
+
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+            long start = System.nanoTime();
+            mDb.beginTransaction();
+            try {
+                for (ContentValues row : rows) {
+                    mDb.insert(WeatherEntry.TABLE_NAME, null, row);
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            long insertNanos = System.nanoTime() - start;
+
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+            long[] upsertNanos = new long[2];
+            for (int pass = 0; pass < upsertNanos.length; pass++) {
+                start = System.nanoTime();
+                mDb.beginTransaction();
+                WeatherUpsert upsert = new WeatherUpsert(mDb);
+                try {
+                    for (ContentValues row : rows) {
+                        upsert.upsert(row);
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    upsert.close();
+                    mDb.endTransaction();
+                }
+                upsertNanos[pass] = System.nanoTime() - start;
+            }
+
+            Log.d(LOG_TAG, count + " rows: insert() " + rowsPerSecond(count, insertNanos)
+                    + " rows/s, compiled upsert " + rowsPerSecond(count, upsertNanos[0])
+                    + " rows/s, unchanged " + rowsPerSecond(count, upsertNanos[1]) + " rows/s");
+        }
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return nanos == 0 ? 0 : rows * 1000000000L / nanos;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming forecast parser produces exactly the rows the org.json parser
+    produces, and logs how long each of them takes on the same payloads.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    static final int TEST_JULIAN_DAY = 2457024; // December 31st, 2014
+
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    // Days as recorded from the daily forecast API, cycled to build longer payloads
+    private static final String[] RECORDED_DAYS = {
+            "{\"dt\":1419076800,\"temp\":{\"day\":-8.35,\"min\":-11.01,\"max\":-7.3,\"night\":-11.01,"
+                    + "\"eve\":-8.21,\"morn\":-8.35},\"pressure\":1006.03,\"humidity\":84,"
+                    + "\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\","
+                    + "\"icon\":\"13d\"}],\"speed\":2.46,\"deg\":242,\"clouds\":92,\"snow\":0.5}",
+            "{\"dt\":1419163200,\"temp\":{\"day\":-13.12,\"min\":-17.79,\"max\":-12.4,"
+                    + "\"night\":-17.79,\"eve\":-14.22,\"morn\":-13.12},\"pressure\":1011.35,"
+                    + "\"humidity\":77,\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                    + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.26,"
+                    + "\"deg\":11,\"clouds\":0}",
+            "{\"dt\":1419249600,\"temp\":{\"day\":-4.2,\"min\":-9.5,\"max\":-3.77,\"night\":-9.5,"
+                    + "\"eve\":-4.8,\"morn\":-6.1},\"pressure\":998.4,\"humidity\":91.5,"
+                    + "\"weather\":[{\"id\":804,\"main\":\"Clouds\","
+                    + "\"description\":\"overcast clouds\",\"icon\":\"04d\"},{\"id\":701,"
+                    + "\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d\"}],"
+                    + "\"speed\":5.11,\"deg\":187.5,\"clouds\":100}"
+    };
+
+    static String createForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5861897,\"name\":\"North Pole\",")
+                .append("\"coord\":{\"lon\":-147.353,\"lat\":64.7488},\"country\":\"US\",")
+                .append("\"population\":0},\"cod\":\"200\",\"message\":0.0092,\"cnt\":")
+                .append(numDays).append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append(RECORDED_DAYS[i % RECORDED_DAYS.length]);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static InputStream toStream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    private void checkPayload(int numDays) throws Exception {
+        String json = createForecastJson(numDays);
+        ForecastJsonParser.Forecast tree = ForecastJsonParser.parseTree(json, TEST_JULIAN_DAY);
+        ForecastJsonParser.Forecast stream =
+                ForecastJsonParser.parse(toStream(json), TEST_JULIAN_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, stream.code);
+        assertEquals(tree.cityName, stream.cityName);
+        assertEquals(tree.latitude, stream.latitude);
+        assertEquals(tree.longitude, stream.longitude);
+        assertEquals("Error: Wrong number of days parsed", numDays, stream.days.size());
+        for (int i = 0; i < numDays; i++) {
+            assertEquals("Error: Day " + i + " differs between parsers",
+                    tree.days.get(i), stream.days.get(i));
+        }
+    }
+
+    public void testFourteenDayPayload() throws Exception {
+        checkPayload(14);
+    }
+
+    public void testSixteenDayPayload() throws Exception {
+        checkPayload(16);
+    }
+
+    public void testErrorResponse() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        ForecastJsonParser.Forecast forecast =
+                ForecastJsonParser.parse(toStream(json), TEST_JULIAN_DAY);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.code);
+        assertEquals(0, forecast.days.size());
+    }
+
+    public void testInvalidResponse() throws Exception {
+        String[] invalid = {
+                "{\"cod\":\"200\",\"list\":[]}",
+                "{\"city\":{\"name\":\"North Pole\"},\"list\":[]}",
+                createForecastJson(2).replace("\"humidity\":84,", ""),
+                "{\"city\" 42}"
+        };
+        for (String json : invalid) {
+            try {
+                ForecastJsonParser.parse(toStream(json), TEST_JULIAN_DAY);
+                fail("Error: Invalid forecast parsed without error: " + json);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the time each parser needs for the recorded payloads so that
+        the two can be compared on a real device.
+     */
+    public void testParseBenchmark() throws Exception {
+        int[] payloadDays = {14, 16};
+        for (int numDays : payloadDays) {
+            String json = createForecastJson(numDays);
+            byte[] bytes = json.getBytes("UTF-8");
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                // Include the String copy that the org.json path needs
+                String body = new String(bytes, "UTF-8");
+                ForecastJsonParser.parseTree(body, TEST_JULIAN_DAY);
+            }
+            long treeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastJsonParser.parse(new ByteArrayInputStream(bytes), TEST_JULIAN_DAY);
+            }
+            long streamNanos = System.nanoTime() - start;
+
+            Log.d(LOG_TAG, numDays + " days: org.json " + (treeNanos / BENCHMARK_ITERATIONS)
+                    + "ns/parse, streaming " + (streamNanos / BENCHMARK_ITERATIONS) + "ns/parse");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs conditional forecast requests against a local stand-in for the weather server.
+ */
+public class TestForecastValidatorCache extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String TEST_ETAG = "\"5c1f-forecast\"";
+    static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private LocalHttpServer mServer;
+    private ForecastValidatorCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer();
+        mCache = new ForecastValidatorCache(mContext);
+        mCache.clear(TEST_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear(TEST_LOCATION);
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private HttpURLConnection request(String path, int julianDay) throws Exception {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mServer.getUrl(path)).openConnection();
+        mCache.addConditionalHeaders(connection, TEST_LOCATION, julianDay);
+        connection.connect();
+        connection.getResponseCode();
+        return connection;
+    }
+
+    public void testNotModifiedAfterSave() throws Exception {
+        int julianDay = TestForecastJsonParser.TEST_JULIAN_DAY;
+        String forecast = TestForecastJsonParser.createForecastJson(14);
+        mServer.enqueue(new LocalHttpServer.Response(200, "OK", forecast.getBytes("UTF-8"))
+                .setHeader("ETag", TEST_ETAG)
+                .setHeader("Last-Modified", TEST_LAST_MODIFIED));
+        mServer.enqueue(new LocalHttpServer.Response(304, "Not Modified", null));
+
+        HttpURLConnection first = request("/forecast", julianDay);
+        assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+        mCache.save(first, TEST_LOCATION, julianDay);
+        first.disconnect();
+
+        HttpURLConnection second = request("/forecast", julianDay);
+        assertEquals("Error: Second request was not answered with 304",
+                HttpURLConnection.HTTP_NOT_MODIFIED, second.getResponseCode());
+        second.disconnect();
+
+        List<Map<String, String>> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull("Error: First request should not be conditional",
+                requests.get(0).get("if-none-match"));
+        assertEquals(TEST_ETAG, requests.get(1).get("if-none-match"));
+        assertEquals(TEST_LAST_MODIFIED, requests.get(1).get("if-modified-since"));
+    }
+
+    public void testNoValidatorsForOtherDayOrUrl() throws Exception {
+        int julianDay = TestForecastJsonParser.TEST_JULIAN_DAY;
+        mServer.enqueue(new LocalHttpServer.Response(200, "OK", "{}".getBytes("UTF-8"))
+                .setHeader("ETag", TEST_ETAG));
+        HttpURLConnection first = request("/forecast", julianDay);
+        mCache.save(first, TEST_LOCATION, julianDay);
+        first.disconnect();
+
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mServer.getUrl("/forecast")).openConnection();
+        assertFalse("Error: Validators offered for a forecast stored on another day",
+                mCache.addConditionalHeaders(connection, TEST_LOCATION, julianDay + 1));
+
+        connection = (HttpURLConnection) new URL(mServer.getUrl("/other")).openConnection();
+        assertFalse("Error: Validators offered for a different request",
+                mCache.addConditionalHeaders(connection, TEST_LOCATION, julianDay));
+
+        mCache.clear(TEST_LOCATION);
+        connection = (HttpURLConnection) new URL(mServer.getUrl("/forecast")).openConnection();
+        assertFalse("Error: Validators offered after clear",
+                mCache.addConditionalHeaders(connection, TEST_LOCATION, julianDay));
+    }
+}
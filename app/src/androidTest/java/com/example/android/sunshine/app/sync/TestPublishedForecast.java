@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+/*
+    Checks when a sync gives the widgets, Muzei, the notification and Wear the preferred
+    location's forecast, in particular after switching back to a location that is still stored.
+ */
+public class TestPublishedForecast extends AndroidTestCase {
+
+    static final String LOCATION_A = "99705";
+    static final String LOCATION_B = "94043";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearPublishedLocation();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearPublishedLocation();
+        super.tearDown();
+    }
+
+    private void clearPublishedLocation() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_last_published_location))
+                .commit();
+    }
+
+    public void testChangedForecastIsPublished() {
+        SunshineSyncAdapter.setPublishedLocation(mContext, LOCATION_A);
+        assertTrue("Error: A changed forecast wasn't published",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_A, true, true));
+    }
+
+    public void testMissingForecastIsNotPublished() {
+        assertFalse("Error: A forecast that isn't stored was published",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_A, false, false));
+    }
+
+    // A -> B -> A on the same day: A's forecast is still stored and the server answers 304
+    public void testSwitchBackToStoredLocationIsPublished() {
+        SunshineSyncAdapter.setPublishedLocation(mContext, LOCATION_A);
+        assertFalse("Error: An unchanged forecast was published again",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_A, false, true));
+
+        assertTrue("Error: Switching to B wasn't published",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_B, false, true));
+        SunshineSyncAdapter.setPublishedLocation(mContext, LOCATION_B);
+
+        assertTrue("Error: Switching back to A wasn't published",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_A, false, true));
+        SunshineSyncAdapter.setPublishedLocation(mContext, LOCATION_A);
+        assertFalse("Error: A was published again after switching back",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_A, false, true));
+    }
+
+    // A saved location's rows are kept current, so making it the preferred one changes no row
+    public void testSwitchToUpToDateSavedLocationIsPublished() {
+        SunshineSyncAdapter.setPublishedLocation(mContext, LOCATION_A);
+        assertTrue("Error: Switching to an up to date location wasn't published",
+                SunshineSyncAdapter.shouldPublishForecast(mContext, LOCATION_B, false, true));
+    }
+}
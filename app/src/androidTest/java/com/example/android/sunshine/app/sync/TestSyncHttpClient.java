@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Checks that the sync HTTP client decompresses responses, counts their traffic and leaves
+    its connections open for the next request.
+ */
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncHttpClient.class.getSimpleName();
+
+    private LocalHttpServer mServer;
+    private SyncHttpClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer();
+        mClient = new SyncHttpClient();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    static byte[] gzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private String fetch(String path) throws Exception {
+        HttpURLConnection connection = mClient.open(new URL(mServer.getUrl(path)));
+        InputStream in = null;
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, mClient.execute(connection));
+            in = mClient.getInputStream(connection);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        } finally {
+            mClient.release(connection, in);
+        }
+    }
+
+    public void testGzipResponse() throws Exception {
+        String forecast = TestForecastJsonParser.createForecastJson(14);
+        byte[] compressed = gzip(forecast.getBytes("UTF-8"));
+        mServer.enqueue(new LocalHttpServer.Response(200, "OK", compressed)
+                .setHeader("Content-Encoding", "gzip"));
+
+        assertEquals("Error: Decompressed body differs from what was sent",
+                forecast, fetch("/forecast"));
+        assertEquals("gzip, deflate", mServer.getRequests().get(0).get("accept-encoding"));
+
+        SyncHttpClient.Metrics metrics = mClient.getMetrics();
+        Log.d(LOG_TAG, "14 day forecast: " + metrics);
+        assertEquals(1, metrics.requestCount);
+        assertEquals(compressed.length, metrics.bytesOnWire);
+        assertEquals(forecast.getBytes("UTF-8").length, metrics.bytesDecoded);
+
+        mClient.resetMetrics();
+        assertEquals(0, mClient.getMetrics().requestCount);
+    }
+
+    public void testIdentityResponse() throws Exception {
+        String forecast = TestForecastJsonParser.createForecastJson(2);
+        mServer.enqueue(new LocalHttpServer.Response(200, "OK", forecast.getBytes("UTF-8")));
+
+        assertEquals(forecast, fetch("/forecast"));
+        SyncHttpClient.Metrics metrics = mClient.getMetrics();
+        assertEquals(metrics.bytesDecoded, metrics.bytesOnWire);
+    }
+
+    public void testConnectionReused() throws Exception {
+        String forecast = TestForecastJsonParser.createForecastJson(14);
+        byte[] compressed = gzip(forecast.getBytes("UTF-8"));
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new LocalHttpServer.Response(200, "OK", compressed)
+                    .setHeader("Content-Encoding", "gzip"));
+        }
+        mServer.enqueue(new LocalHttpServer.Response(304, "Not Modified", null));
+
+        for (int i = 0; i < 3; i++) {
+            fetch("/forecast");
+        }
+        // A body that is never opened must still be released
+        HttpURLConnection connection = mClient.open(new URL(mServer.getUrl("/forecast")));
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, mClient.execute(connection));
+        mClient.release(connection, null);
+
+        assertEquals(4, mServer.getRequests().size());
+        assertEquals("Error: Requests were not sent over a single kept-alive connection",
+                1, mServer.getConnectionCount());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.1 stand-in for the weather server.  Tests queue canned responses, point a
+ * connection at {@link #getUrl(String)} and afterwards inspect the request headers the server
+ * received.  Header names are recorded in lower case.
+ */
+public class LocalHttpServer {
+
+    public static class Response {
+        final int mCode;
+        final String mReason;
+        final Map<String, String> mHeaders = new HashMap<String, String>();
+        final byte[] mBody;
+
+        public Response(int code, String reason, byte[] body) {
+            mCode = code;
+            mReason = reason;
+            mBody = body == null ? new byte[0] : body;
+        }
+
+        public Response setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final LinkedList<Response> mResponses = new LinkedList<Response>();
+    private final List<Map<String, String>> mRequests = new ArrayList<Map<String, String>>();
+    private final Thread mThread;
+    private int mConnectionCount;
+
+    public LocalHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = mServerSocket.accept();
+                        synchronized (LocalHttpServer.this) {
+                            mConnectionCount++;
+                        }
+                        // Each connection gets its own thread so an idle keep-alive
+                        // connection does not block the next one
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    serve(socket);
+                                } catch (IOException e) {
+                                    // client went away
+                                }
+                            }
+                        }).start();
+                    }
+                } catch (IOException e) {
+                    // server socket closed by shutdown()
+                }
+            }
+        }, "LocalHttpServer");
+        mThread.start();
+    }
+
+    public synchronized void enqueue(Response response) {
+        mResponses.add(response);
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    /** Returns the headers of every request received so far, in order. */
+    public synchronized List<Map<String, String>> getRequests() {
+        return new ArrayList<Map<String, String>>(mRequests);
+    }
+
+    /** Returns the number of TCP connections accepted so far. */
+    public synchronized int getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    // Serves requests on a connection until the client closes it or we run out of responses
+    private void serve(Socket socket) throws IOException {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    "ISO-8859-1"));
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = in.readLine();
+                if (requestLine == null || requestLine.length() == 0) {
+                    return;
+                }
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                Response response;
+                synchronized (this) {
+                    mRequests.add(headers);
+                    response = mResponses.poll();
+                }
+                if (response == null) {
+                    response = new Response(500, "No Response Queued", null);
+                }
+                StringBuilder head = new StringBuilder();
+                head.append("HTTP/1.1 ").append(response.mCode).append(' ')
+                        .append(response.mReason).append("\r\n");
+                for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue())
+                            .append("\r\n");
+                }
+                head.append("Content-Length: ").append(response.mBody.length).append("\r\n\r\n");
+                out.write(head.toString().getBytes("ISO-8859-1"));
+                out.write(response.mBody);
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
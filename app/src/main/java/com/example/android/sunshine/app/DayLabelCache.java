@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Remembers the labels {@link Utility} formats for a day, so that showing the same day again
+ * costs a lookup instead of a Time, a SimpleDateFormat and a few strings.
+ * <p>
+ * Labels like "Today" or "Wednesday" depend on the current day, the locale and the time zone,
+ * so all of them are forgotten when one of those changes.
+ */
+final class DayLabelCache {
+
+    // The kinds of labels, usable as indices into the labels of a day
+    static final int FRIENDLY_DAY = 0;
+    static final int FRIENDLY_DAY_LONG_TODAY = 1;
+    static final int FULL_FRIENDLY_DAY = 2;
+    static final int DAY_NAME = 3;
+    static final int MONTH_DAY = 4;
+    private static final int KINDS = 5;
+
+    // A forecast is a few weeks at most; this only bounds dates from anywhere else
+    private static final int MAX_DAYS = 64;
+
+    private static DayLabelCache sInstance;
+
+    private final Context mContext;
+    // The labels of each julian day, by kind
+    private final SparseArray<String[]> mLabels = new SparseArray<String[]>();
+    private TimeZone mTimeZone;
+    private Locale mLocale;
+    private int mToday;
+
+    static synchronized DayLabelCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DayLabelCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DayLabelCache(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    synchronized void invalidate() {
+        mTimeZone = null;
+        mLabels.clear();
+    }
+
+    /**
+     * Returns the label of the given kind for the day of the given date, formatting it only if
+     * it was not asked for yet today.
+     */
+    synchronized String getLabel(int kind, long dateInMillis) {
+        // Locale.getDefault() hands out the same instance until the locale changes
+        if (mTimeZone == null || mLocale != Locale.getDefault()) {
+            invalidate();
+            mTimeZone = TimeZone.getDefault();
+            mLocale = Locale.getDefault();
+        }
+
+        // Like Utility, use the offset of now for both days
+        long now = System.currentTimeMillis();
+        int gmtoff = mTimeZone.getOffset(now) / 1000;
+        int today = Time.getJulianDay(now, gmtoff);
+        if (today != mToday) {
+            mLabels.clear();
+            mToday = today;
+        }
+
+        int day = Time.getJulianDay(dateInMillis, gmtoff);
+        String[] labels = mLabels.get(day);
+        if (labels == null) {
+            if (mLabels.size() >= MAX_DAYS) {
+                mLabels.clear();
+            }
+            labels = new String[KINDS];
+            mLabels.put(day, labels);
+        }
+        if (labels[kind] == null) {
+            labels[kind] = format(kind, dateInMillis);
+        }
+        return labels[kind];
+    }
+
+    private String format(int kind, long dateInMillis) {
+        switch (kind) {
+            case FRIENDLY_DAY:
+                return Utility.formatFriendlyDayString(mContext, dateInMillis, false);
+            case FRIENDLY_DAY_LONG_TODAY:
+                return Utility.formatFriendlyDayString(mContext, dateInMillis, true);
+            case FULL_FRIENDLY_DAY:
+                return Utility.formatFullFriendlyDayString(mContext, dateInMillis);
+            case DAY_NAME:
+                return Utility.formatDayName(mContext, dateInMillis);
+            case MONTH_DAY:
+                return Utility.formatMonthDay(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown label: " + kind);
+        }
+    }
+}
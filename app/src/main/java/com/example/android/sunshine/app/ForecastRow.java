@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+/**
+ * One day of the forecast list, with everything {@link ForecastAdapter} shows already formatted.
+ * Rows are built by {@link ForecastLoader} on its background thread, so binding one only sets
+ * text and images.
+ */
+public final class ForecastRow {
+
+    // The weather row's _id, which the upsert in WeatherProvider keeps stable across syncs
+    public final long id;
+    public final long date;
+    public final int weatherId;
+
+    public final String dayString;
+    // The date as shown in the "today" layout
+    public final String longDayString;
+    public final int iconResource;
+    public final int artResource;
+    // null when using the local graphics
+    public final String artUrl;
+    public final String description;
+    public final String descriptionContentDescription;
+    public final String high;
+    public final String highContentDescription;
+    public final String low;
+    public final String lowContentDescription;
+
+    public final String coordLat;
+    public final String coordLong;
+
+    /**
+     * Formats the row the cursor is on, which has to have the columns of
+     * {@link ForecastLoader#FORECAST_COLUMNS}.
+     */
+    ForecastRow(Context context, Cursor cursor, boolean usingLocalGraphics) {
+        id = cursor.getLong(ForecastLoader.COL_WEATHER_ID);
+        date = cursor.getLong(ForecastLoader.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastLoader.COL_WEATHER_CONDITION_ID);
+
+        dayString = Utility.getFriendlyDayString(context, date, false);
+        longDayString = Utility.getFriendlyDayString(context, date, true);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = usingLocalGraphics ? null
+                : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+        high = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastLoader.COL_WEATHER_MAX_TEMP));
+        highContentDescription = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastLoader.COL_WEATHER_MIN_TEMP));
+        lowContentDescription = context.getString(R.string.a11y_low_temp, low);
+
+        coordLat = cursor.getString(ForecastLoader.COL_COORD_LAT);
+        coordLong = cursor.getString(ForecastLoader.COL_COORD_LONG);
+    }
+
+    /**
+     * Two rows are equal if they show the same thing, so that an unchanged day is not bound
+     * again when the forecast is reloaded.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow row = (ForecastRow) o;
+        return id == row.id
+                && date == row.date
+                && weatherId == row.weatherId
+                && iconResource == row.iconResource
+                && artResource == row.artResource
+                && TextUtils.equals(dayString, row.dayString)
+                && TextUtils.equals(longDayString, row.longDayString)
+                && TextUtils.equals(artUrl, row.artUrl)
+                && TextUtils.equals(description, row.description)
+                && TextUtils.equals(high, row.high)
+                && TextUtils.equals(low, row.low)
+                && TextUtils.equals(coordLat, row.coordLat)
+                && TextUtils.equals(coordLong, row.coordLong);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (int) (date ^ (date >>> 32));
+        result = 31 * result + weatherId;
+        result = 31 * result + (high != null ? high.hashCode() : 0);
+        result = 31 * result + (low != null ? low.hashCode() : 0);
+        return result;
+    }
+}
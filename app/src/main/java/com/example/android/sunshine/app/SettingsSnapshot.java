@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The settings {@link Utility} hands out, read from the SharedPreferences once and read again
+ * only when one of them changes.  A snapshot never changes, so any thread can use the current
+ * one without locking; binding a list row or a widget row costs a volatile read instead of a
+ * map lookup and a string resource per setting.
+ * <p>
+ * Code that reacts to a changed setting should register with {@link #registerListener} rather
+ * than with the SharedPreferences, so that it is told after the snapshot has been updated.
+ */
+final class SettingsSnapshot {
+
+    final String location;
+    // The comma separated other locations to sync
+    final String savedLocations;
+    final boolean metric;
+    // The URL format of the art pack
+    final String artPack;
+    final boolean localGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    final int locationStatus;
+
+    private static volatile SettingsSnapshot sCurrent;
+    private static Context sContext;
+    private static final List<SharedPreferences.OnSharedPreferenceChangeListener> sListeners =
+            new CopyOnWriteArrayList<SharedPreferences.OnSharedPreferenceChangeListener>();
+
+    // Held here, since SharedPreferences only keeps a weak reference to its listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    sCurrent = new SettingsSnapshot(sContext, sharedPreferences);
+                    for (SharedPreferences.OnSharedPreferenceChangeListener listener : sListeners) {
+                        listener.onSharedPreferenceChanged(sharedPreferences, key);
+                    }
+                }
+            };
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        savedLocations = prefs.getString(context.getString(R.string.pref_saved_locations_key), "");
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * Returns the current settings.
+     */
+    static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current != null) {
+            return current;
+        }
+        return load(context);
+    }
+
+    private static synchronized SettingsSnapshot load(Context context) {
+        if (sCurrent == null) {
+            sContext = context.getApplicationContext();
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(sContext);
+            prefs.registerOnSharedPreferenceChangeListener(sPreferenceListener);
+            sCurrent = new SettingsSnapshot(sContext, prefs);
+        }
+        return sCurrent;
+    }
+
+    /**
+     * Calls the listener on the main thread whenever a setting changed, after the snapshot that
+     * {@link #get(Context)} returns has been updated.
+     */
+    static void registerListener(Context context,
+                                 SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        get(context);
+        sListeners.add(listener);
+    }
+
+    static void unregisterListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sListeners.remove(listener);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * Formats temperatures like {@link Utility#formatTemperature(Context, double)} always has, but
+ * formats each whole degree only once.
+ */
+final class TemperatureFormatter {
+
+    // Whole degrees that are formatted once and kept; anything else is formatted every time
+    private static final int MIN_CACHED = -100;
+    private static final int MAX_CACHED = 150;
+
+    private static TemperatureFormatter sInstance;
+
+    /*
+        The formatted degrees for one locale.  Entries are filled in as they are needed; two
+        threads filling in the same entry both write the same string.
+     */
+    private static final class Degrees {
+        final Locale locale;
+        final String format;
+        final String[] strings = new String[MAX_CACHED - MIN_CACHED + 1];
+
+        Degrees(Locale locale, String format) {
+            this.locale = locale;
+            this.format = format;
+        }
+    }
+
+    private final Context mContext;
+    private volatile Degrees mDegrees;
+
+    static synchronized TemperatureFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TemperatureFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TemperatureFormatter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Formats a temperature, stored in Celsius, in the unit the user prefers.
+     */
+    String format(double temperature) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!SettingsSnapshot.get(mContext).metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        Degrees degrees = mDegrees;
+        // Locale.getDefault() hands out the same instance until the locale changes
+        if (degrees == null || degrees.locale != Locale.getDefault()) {
+            degrees = new Degrees(Locale.getDefault(),
+                    mContext.getString(R.string.format_temperature));
+            mDegrees = degrees;
+        }
+
+        // The format rounds half away from zero, and shows temperatures just below zero, and
+        // negative zero itself, as -0
+        double magnitude = Math.abs(temperature);
+        long rounded = (long) Math.floor(magnitude);
+        if (magnitude - rounded >= 0.5) {
+            rounded++;
+        }
+        if (Double.doubleToRawLongBits(temperature) < 0) {
+            if (rounded == 0) {
+                return String.format(degrees.format, temperature);
+            }
+            rounded = -rounded;
+        }
+        if (rounded < MIN_CACHED || rounded > MAX_CACHED || Double.isNaN(temperature)) {
+            return String.format(degrees.format, temperature);
+        }
+
+        int index = (int) rounded - MIN_CACHED;
+        String formatted = degrees.strings[index];
+        if (formatted == null) {
+            formatted = String.format(degrees.format, (double) rounded);
+            degrees.strings[index] = formatted;
+        }
+        return formatted;
+    }
+}
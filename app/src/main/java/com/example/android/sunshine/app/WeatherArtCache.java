@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The weather art that is drawn outside the app's own views, where Glide can't size it to a
+ * view: the widgets and the notification.  Art is decoded at about the size it is shown at
+ * rather than at its original size, and kept for the whole process, so the widgets and the
+ * sync adapter share one copy of each picture and pass small bitmaps to other processes.
+ * <p>
+ * Sizes are rounded up to a multiple of {@link #SIZE_STEP} pixels, so that places showing art
+ * at nearly the same size share a bitmap.
+ */
+public final class WeatherArtCache {
+
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    private static final int SIZE_STEP = 32;
+    // The most the cached bitmaps may take up, and the share of the heap it is limited to
+    private static final int MAX_BYTES = 4 * 1024 * 1024;
+    private static final int HEAP_FRACTION = 16;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(Context context) {
+        mContext = context;
+        int maxBytes = (int) Math.min(MAX_BYTES, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Returns the art at a URL fitted into the given size in pixels, or the fallback resource
+     * if there is no URL or the art can't be loaded.  Downloads the art if it isn't cached, so
+     * this must not be called on the main thread.
+     *
+     * @return the art, or null if not even the fallback could be decoded
+     */
+    public Bitmap get(String artUrl, int fallbackResourceId, int width, int height) {
+        int bucketWidth = toBucket(width);
+        int bucketHeight = toBucket(height);
+        if (artUrl != null) {
+            String key = artUrl + '@' + bucketWidth + 'x' + bucketHeight;
+            Bitmap art = mBitmaps.get(key);
+            if (art != null) {
+                return art;
+            }
+            try {
+                // Kept out of Glide's memory cache, since it is kept here
+                art = Glide.with(mContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .skipMemoryCache(true)
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
+                        .fitCenter()
+                        .into(bucketWidth, bucketHeight).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+            }
+            if (art != null) {
+                mBitmaps.put(key, art);
+                return art;
+            }
+        }
+        // Not kept under the URL, so that the art is tried again next time
+        return getResource(fallbackResourceId, bucketWidth, bucketHeight);
+    }
+
+    private Bitmap getResource(int resourceId, int width, int height) {
+        String key = "res:" + resourceId + '@' + width + 'x' + height;
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mContext.getResources(), resourceId, options);
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        bitmap = BitmapFactory.decodeResource(mContext.getResources(), resourceId, options);
+        if (bitmap != null) {
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the largest power of two the image can be scaled down by and still cover the
+     * requested size.
+     */
+    static int getSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    static int toBucket(int size) {
+        return Math.max(1, (size + SIZE_STEP - 1) / SIZE_STEP) * SIZE_STEP;
+    }
+}
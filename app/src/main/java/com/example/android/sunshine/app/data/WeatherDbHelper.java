@@ -15,9 +15,12 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -27,13 +30,95 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, change
+    // onCreate to create the new schema, and add a Migration for it to MIGRATIONS.
+    static final int DATABASE_VERSION = 3;
+
+    // Databases older than this are dropped and created again on upgrade
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the forecast queries, which look up a location's rows and then range over their
+    // dates.  The UNIQUE (date, location_id) index has its columns the other way round, so it
+    // can't.  Locations are found by the index of their UNIQUE location_setting.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    /**
+     * One step of the schema's history, bringing a database from the previous version to
+     * {@link #version} without losing its rows.
+     */
+    abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In version order, one step for every version after OLDEST_MIGRATABLE_VERSION
+    static final Migration[] MIGRATIONS = {
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
+    // After a checkpoint the write-ahead log file is truncated to at most this size, instead of
+    // keeping the size of the largest sync it ever held
+    private static final int WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging, queries run on their own connections and read the last
+        // committed data while the sync is writing, instead of waiting for it to finish.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        // PRAGMAs that report a value have to be run as queries
+        Cursor cursor = db.rawQuery("PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES, null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, so that readers don't have
+     * to look through a log full of the last sync.  It doesn't wait for readers, and is a no-op
+     * without write-ahead logging.  SQLite still checkpoints on its own once the log passes
+     * 1000 pages; this is for right after a large write, which is when the log is longest.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+        cursor.moveToFirst();
+        cursor.close();
     }
 
     @Override
@@ -81,18 +166,24 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // The database is only a cache for online data, but keeping it means the forecast shows
+        // up right away after an update instead of after a sync.  SQLiteOpenHelper runs this
+        // in a transaction, so a failed step leaves the database at its old version.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                migration.migrate(sqLiteDatabase);
+            }
+        }
     }
 }
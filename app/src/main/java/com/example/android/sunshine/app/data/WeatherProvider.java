@@ -17,25 +17,56 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Set on the thread running applyBatch: changes made by the batch are only announced once
+    // it has been committed.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * What a running applyBatch has done so far.
+     */
+    private static class Batch {
+        // Each changed URI once, in the order of their first change
+        final LinkedHashSet<Uri> changes = new LinkedHashSet<Uri>();
+        // The operations that inserted weather already stored with the same values, by index.
+        // Not by URI, since two operations of a batch may write the same row.
+        final BitSet unchangedInserts = new BitSet();
+        // The index of the operation being applied
+        int operationIndex;
+        // Compiled when the batch inserts its first complete weather row
+        WeatherUpsert weatherUpsert;
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -51,19 +82,24 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -233,11 +269,30 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                int[] counts = new int[WeatherUpsert.OUTCOMES];
+                Batch batch = mBatch.get();
+                long _id;
+                if (batch != null && WeatherUpsert.canUpsert(values)) {
+                    // Batches insert many rows, so reuse one set of compiled statements
+                    if (batch.weatherUpsert == null) {
+                        batch.weatherUpsert = new WeatherUpsert(db);
+                    }
+                    counts[batch.weatherUpsert.upsert(values)]++;
+                    _id = batch.weatherUpsert.getRowId();
+                } else {
+                    _id = upsertWeather(db, values, counts);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                if (counts[WeatherUpsert.UNCHANGED] > 0) {
+                    // Nothing was written, so there is nothing to notify about
+                    if (batch != null) {
+                        batch.unchangedInserts.set(batch.operationIndex);
+                    }
+                    return returnUri;
+                }
                 break;
             }
             case LOCATION: {
@@ -251,7 +306,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -276,7 +331,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -310,38 +365,200 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Weather rows are compared with the rows stored for the same location and day: new rows are
+     * inserted, changed rows are updated in place and keep their _id, and identical rows are left
+     * alone.  Observers are only notified if something was written.
+     *
+     * @return the number of rows inserted or updated.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                int[] counts = new int[WeatherUpsert.OUTCOMES];
+                WeatherUpsert weatherUpsert = null;
                 db.beginTransaction();
-                int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                        if (WeatherUpsert.canUpsert(value)) {
+                            if (weatherUpsert == null) {
+                                weatherUpsert = new WeatherUpsert(db);
+                            }
+                            counts[weatherUpsert.upsert(value)]++;
+                        } else {
+                            upsertWeather(db, value, counts);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    if (weatherUpsert != null) {
+                        weatherUpsert.close();
+                    }
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                Log.d(LOG_TAG, "bulkInsert: " + counts[WeatherUpsert.INSERTED] + " inserted, "
+                        + counts[WeatherUpsert.UPDATED] + " updated, "
+                        + counts[WeatherUpsert.UNCHANGED] + " unchanged");
+                int returnCount = counts[WeatherUpsert.INSERTED] + counts[WeatherUpsert.UPDATED];
+                if (returnCount > 0) {
+                    WeatherDbHelper.checkpoint(db);
+                    notifyChange(uri);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Stores a weather row, keeping the _id of the row already stored for its location and day.
+     * Only the columns whose values differ are written, and nothing at all when none do.  This
+     * is the generic path for rows that {@link WeatherUpsert} cannot bind.
+     *
+     * @param values The row, with its date already normalized.
+     * @param counts Incremented at the index of the outcome.
+     * @return the _id of the row, or -1 if it could not be inserted.
+     */
+    private long upsertWeather(SQLiteDatabase db, ContentValues values, int[] counts) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            // keySet() needs API 11
+            ArrayList<String> columns = new ArrayList<String>(values.size() + 1);
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                columns.add(entry.getKey());
+            }
+            columns.add(WeatherContract.WeatherEntry._ID);
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    columns.toArray(new String[columns.size()]),
+                    sLocationIdAndDaySelection,
+                    new String[]{Long.toString(locationId), Long.toString(date)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (cursor.moveToFirst()) {
+                    long _id = cursor.getLong(columns.size() - 1);
+                    ContentValues changed = new ContentValues();
+                    for (int i = 0; i < columns.size() - 1; i++) {
+                        Object value = values.get(columns.get(i));
+                        if (!isStoredValue(cursor, i, value)) {
+                            putValue(changed, columns.get(i), value);
+                        }
+                    }
+                    if (changed.size() == 0) {
+                        counts[WeatherUpsert.UNCHANGED]++;
+                    } else {
+                        db.update(WeatherContract.WeatherEntry.TABLE_NAME, changed,
+                                WeatherContract.WeatherEntry._ID + " = ?",
+                                new String[]{Long.toString(_id)});
+                        counts[WeatherUpsert.UPDATED]++;
+                    }
+                    return _id;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        if (_id != -1) {
+            counts[WeatherUpsert.INSERTED]++;
+        }
+        return _id;
+    }
+
+    private static boolean isStoredValue(Cursor cursor, int column, Object value) {
+        if (value == null || cursor.isNull(column)) {
+            return value == null && cursor.isNull(column);
+        } else if (value instanceof Double || value instanceof Float) {
+            return cursor.getDouble(column) == ((Number) value).doubleValue();
+        } else if (value instanceof Number) {
+            return cursor.getLong(column) == ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            return (cursor.getLong(column) != 0) == (Boolean) value;
+        } else if (value instanceof byte[]) {
+            return Arrays.equals(cursor.getBlob(column), (byte[]) value);
+        }
+        return value.toString().equals(cursor.getString(column));
+    }
+
+    private static void putValue(ContentValues values, String column, Object value) {
+        if (value == null) {
+            values.putNull(column);
+        } else if (value instanceof Double || value instanceof Float) {
+            values.put(column, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            values.put(column, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            values.put(column, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(column, (byte[]) value);
+        } else {
+            values.put(column, value.toString());
+        }
+    }
+
+    /**
+     * Applies all the operations in a single transaction.  Observers are notified once the batch
+     * has been committed, once for each URI the batch changed, instead of once per operation.
+     * <p>
+     * A weather insert that finds its row already stored with the same values writes nothing,
+     * and its result carries a count of 0 instead of a uri.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            // As ContentProvider.applyBatch does, but keeping track of which operation is applied
+            for (int i = 0; i < numOperations; i++) {
+                batch.operationIndex = i;
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch.weatherUpsert != null) {
+                batch.weatherUpsert.close();
+            }
+            db.endTransaction();
+            mBatch.set(null);
+        }
+        for (int i = batch.unchangedInserts.nextSetBit(0); i >= 0;
+                i = batch.unchangedInserts.nextSetBit(i + 1)) {
+            results[i] = new ContentProviderResult(0);
+        }
+        if (!batch.changes.isEmpty()) {
+            WeatherDbHelper.checkpoint(db);
+            for (Uri uri : batch.changes) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changes.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
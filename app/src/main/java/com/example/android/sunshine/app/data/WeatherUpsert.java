@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Compiled statements that store complete weather rows with the same semantics as
+ * {@link WeatherProvider}'s upsert: a changed row is updated in place and keeps its _id, an
+ * identical row is left alone.
+ * <p>
+ * The SQL is compiled once and every row is bound by position, instead of building the SQL and
+ * walking the ContentValues map for each row the way SQLiteDatabase.insert() does.  Rows are
+ * first offered to an UPDATE that only matches a stored row whose values differ; if that touches
+ * nothing an INSERT OR IGNORE adds the row, and ignores it when an identical one is stored.
+ * <p>
+ * Must only be used inside a transaction, so that all statements run on the same connection.
+ */
+final class WeatherUpsert {
+
+    // Outcomes of upsert(), usable as indices into an array of counts
+    static final int INSERTED = 0;
+    static final int UPDATED = 1;
+    static final int UNCHANGED = 2;
+    static final int OUTCOMES = 3;
+
+    // The key columns come first; the statements below depend on this order
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int KEY_COLUMNS = 2;
+
+    private static final String SQL_UPDATE;
+    private static final String SQL_INSERT;
+    private static final String SQL_QUERY_ID =
+            "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                    WeatherEntry.COLUMN_DATE + " = ?2";
+
+    static {
+        // UPDATE weather SET short_desc = ?3, ... WHERE location_id = ?1 AND date = ?2
+        //     AND NOT (short_desc IS ?3 AND ...)
+        StringBuilder set = new StringBuilder();
+        StringBuilder same = new StringBuilder();
+        for (int i = KEY_COLUMNS; i < COLUMNS.length; i++) {
+            if (i > KEY_COLUMNS) {
+                set.append(", ");
+                same.append(" AND ");
+            }
+            set.append(COLUMNS[i]).append(" = ?").append(i + 1);
+            same.append(COLUMNS[i]).append(" IS ?").append(i + 1);
+        }
+        SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + set +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                WeatherEntry.COLUMN_DATE + " = ?2 AND NOT (" + same + ")";
+
+        // INSERT OR IGNORE INTO weather (location_id, ...) VALUES (?1, ...)
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+                values.append(", ");
+            }
+            columns.append(COLUMNS[i]);
+            values.append('?').append(i + 1);
+        }
+        SQL_INSERT = "INSERT OR IGNORE INTO " + WeatherEntry.TABLE_NAME +
+                " (" + columns + ") VALUES (" + values + ")";
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+    private SQLiteStatement mQueryId;
+    private SQLiteStatement mChanges;
+
+    // The row of the last upsert, or -1 if it has to be looked up
+    private long mRowId;
+    private ContentValues mLastValues;
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mDb = db;
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mInsert = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Returns true if the values are a complete weather row with no nulls, which is what the
+     * compiled statements can store.  Anything else has to take the generic path.
+     */
+    static boolean canUpsert(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores a row accepted by {@link #canUpsert(ContentValues)}, with its date already
+     * normalized.
+     *
+     * @return one of {@link #INSERTED}, {@link #UPDATED} or {@link #UNCHANGED}.
+     */
+    int upsert(ContentValues values) {
+        mLastValues = values;
+        mRowId = -1;
+
+        bind(mUpdate, values);
+        if (executeUpdate() > 0) {
+            return UPDATED;
+        }
+        bind(mInsert, values);
+        mRowId = mInsert.executeInsert();
+        return mRowId == -1 ? UNCHANGED : INSERTED;
+    }
+
+    /**
+     * Returns the _id of the row stored by the last call to {@link #upsert(ContentValues)}.
+     */
+    long getRowId() {
+        if (mRowId == -1 && mLastValues != null) {
+            if (mQueryId == null) {
+                mQueryId = mDb.compileStatement(SQL_QUERY_ID);
+            }
+            bindValue(mQueryId, 1, mLastValues.get(COLUMNS[0]));
+            bindValue(mQueryId, 2, mLastValues.get(COLUMNS[1]));
+            try {
+                mRowId = mQueryId.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // not stored
+            }
+        }
+        return mRowId;
+    }
+
+    void close() {
+        mUpdate.close();
+        mInsert.close();
+        if (mQueryId != null) {
+            mQueryId.close();
+        }
+        if (mChanges != null) {
+            mChanges.close();
+        }
+    }
+
+    private int executeUpdate() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDelete();
+        }
+        // Before Honeycomb the number of changed rows has to be asked for separately.  This is
+        // why we must be inside a transaction: it has to run on the connection that updated.
+        mUpdate.execute();
+        if (mChanges == null) {
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+        return (int) mChanges.simpleQueryForLong();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int executeUpdateDelete() {
+        return mUpdate.executeUpdateDelete();
+    }
+
+    private static void bind(SQLiteStatement statement, ContentValues values) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bindValue(statement, i + 1, values.get(COLUMNS[i]));
+        }
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Serves the art in {@link ArtworkStore} to Muzei, which runs in its own process.  It isn't
+ * exported: Muzei is granted read access to each URI it is given, and nothing but the art files
+ * themselves is ever served.
+ */
+public class ArtworkProvider extends ContentProvider {
+
+    // Must match the authority in AndroidManifest.xml
+    public static final String CONTENT_AUTHORITY = BuildConfig.APPLICATION_ID + ".artwork";
+
+    private static final String MIME_TYPE = "image/jpeg";
+
+    static Uri getUri(String fileName) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(CONTENT_AUTHORITY)
+                .appendPath(fileName)
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Artwork can only be read: " + uri);
+        }
+        String fileName = uri.getLastPathSegment();
+        if (uri.getPathSegments().size() != 1 || !ArtworkStore.isArtworkFileName(fileName)) {
+            throw new FileNotFoundException("No artwork at " + uri);
+        }
+        File file = new File(ArtworkStore.getDirectory(getContext()), fileName);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Artwork is read only: " + uri);
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read only: " + uri);
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read only: " + uri);
+    }
+}
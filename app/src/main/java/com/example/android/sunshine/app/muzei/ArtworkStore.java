@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SyncHttpClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The Muzei artwork of each kind of weather, downloaded once, scaled down to the height of the
+ * screen and kept on disk, so that a change in the weather costs no network bytes when its art
+ * has been shown before.  When the stored art grows over {@link #MAX_BYTES} the art that was
+ * shown longest ago is deleted.
+ * <p>
+ * The files are served to Muzei by {@link ArtworkProvider}.
+ */
+final class ArtworkStore {
+
+    private static final String LOG_TAG = ArtworkStore.class.getSimpleName();
+
+    static final String DIRECTORY = "artwork";
+    private static final String FILE_EXTENSION = ".jpg";
+    private static final String DOWNLOAD_EXTENSION = ".download";
+
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final SyncHttpClient mHttpClient = SyncHttpClient.getInstance();
+
+    ArtworkStore(Context context) {
+        mContext = context.getApplicationContext();
+        mDirectory = getDirectory(mContext);
+    }
+
+    static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Returns whether a name is one {@link #get} gives its files, so that nothing else in the
+     * directory is ever served.
+     */
+    static boolean isArtworkFileName(String name) {
+        return name != null && name.matches("[0-9a-f]{40}\\" + FILE_EXTENSION);
+    }
+
+    // Named by the SHA-1 of the URL, so that no two images ever share a file
+    private static String getFileName(String imageUrl) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device has SHA-1
+            throw new IllegalStateException(e);
+        }
+        byte[] hash;
+        try {
+            hash = digest.digest(imageUrl.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // Every Android device has UTF-8
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder(hash.length * 2 + FILE_EXTENSION.length());
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return name.append(FILE_EXTENSION).toString();
+    }
+
+    /**
+     * Returns the content:// URI of the art at a URL, downloading it first if it isn't stored,
+     * or null if it can't be downloaded.  Must not be called on the main thread.
+     */
+    Uri get(String imageUrl) {
+        File file = new File(mDirectory, getFileName(imageUrl));
+        if (file.exists()) {
+            // Remember that the art is in use, for trim()
+            file.setLastModified(System.currentTimeMillis());
+            return ArtworkProvider.getUri(file.getName());
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + mDirectory);
+            return null;
+        }
+        File download = new File(mDirectory, file.getName() + DOWNLOAD_EXTENSION);
+        try {
+            download(imageUrl, download);
+            Bitmap bitmap = decodeForScreen(download);
+            if (bitmap == null) {
+                Log.e(LOG_TAG, "Couldn't decode " + imageUrl);
+                return null;
+            }
+            OutputStream out = new FileOutputStream(download);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+                bitmap.recycle();
+            }
+            if (!download.renameTo(file)) {
+                Log.e(LOG_TAG, "Couldn't store " + file);
+                return null;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+            return null;
+        } finally {
+            download.delete();
+        }
+        trim(file);
+        return ArtworkProvider.getUri(file.getName());
+    }
+
+    private void download(String imageUrl, File destination) throws IOException {
+        HttpURLConnection connection = mHttpClient.open(new URL(imageUrl));
+        InputStream in = null;
+        try {
+            int status = mHttpClient.execute(connection);
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status);
+            }
+            in = mHttpClient.getInputStream(connection);
+            OutputStream out = new FileOutputStream(destination);
+            try {
+                byte[] buffer = new byte[8 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            mHttpClient.release(connection, in);
+        }
+    }
+
+    /**
+     * Decodes the image no taller than the screen is long, so that it still fills the screen
+     * in either orientation.  The image is sampled down by powers of two and then scaled the
+     * rest of the way as it is decoded, so the full size image is never held in memory.
+     */
+    private Bitmap decodeForScreen(File file) {
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        int targetHeight = Math.max(metrics.widthPixels, metrics.heightPixels);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        int sampledHeight = options.outHeight / sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        if (sampledHeight > targetHeight) {
+            // Scales the sampled image by targetHeight / sampledHeight while decoding it
+            options.inScaled = true;
+            options.inDensity = sampledHeight;
+            options.inTargetDensity = targetHeight;
+        }
+        // Photos have no alpha
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Deletes the art shown longest ago until the store fits its budget, always keeping the
+     * given file.
+     */
+    private void trim(File keep) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        while (totalBytes > MAX_BYTES) {
+            File oldest = null;
+            for (File file : files) {
+                if (file != null && !file.equals(keep)
+                        && (oldest == null || file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            totalBytes -= oldest.length();
+            oldest.delete();
+            for (int i = 0; i < files.length; i++) {
+                if (oldest.equals(files[i])) {
+                    files[i] = null;
+                }
+            }
+        }
+    }
+}
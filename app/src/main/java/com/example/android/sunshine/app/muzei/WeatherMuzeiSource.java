@@ -38,10 +38,21 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
 
+    // The app that shows the artwork we publish
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
+
+    private ArtworkStore mArtworkStore;
+
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mArtworkStore = new ArtworkStore(this);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         super.onHandleIntent(intent);
@@ -66,8 +77,17 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
             if (imageUrl != null) {
+                // Muzei is given the stored copy, and only downloads the image itself when it
+                // couldn't be stored
+                Uri imageUri = mArtworkStore.get(imageUrl);
+                if (imageUri != null) {
+                    // ArtworkProvider isn't exported, so Muzei can only read what it is given
+                    grantUriPermission(MUZEI_PACKAGE, imageUri,
+                            Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                }
                 publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
+                        .imageUri(imageUri != null ? imageUri : Uri.parse(imageUrl))
+                        .token(imageUrl)
                         .title(desc)
                         .byline(location)
                         .viewIntent(new Intent(this, MainActivity.class))
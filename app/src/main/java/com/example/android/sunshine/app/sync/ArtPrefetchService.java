@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches the art of every kind of weather in the stored forecast after a sync, so that the
+ * forecast list and the detail view find it in Glide's caches instead of loading it as they
+ * show each day.  The art is downloaded once into the disk cache, and the list's icons are
+ * decoded into the memory cache at the size the list shows them.
+ * <p>
+ * Nothing is fetched on a metered network: the views still load any missing art themselves,
+ * and the next sync on an unmetered network fetches the rest.
+ */
+public class ArtPrefetchService extends IntentService {
+    private static final String LOG_TAG = ArtPrefetchService.class.getSimpleName();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+
+    public ArtPrefetchService() {
+        super("ArtPrefetchService");
+    }
+
+    /**
+     * Prefetches the art for the stored forecast, unless it is drawn from the app's resources.
+     */
+    public static void prefetch(Context context) {
+        if (!Utility.usingLocalGraphics(context)) {
+            context.startService(new Intent(context, ArtPrefetchService.class));
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // The art pack may have been changed to the local graphics since this was started
+        if (Utility.usingLocalGraphics(this) || !isNetworkUnmetered()) {
+            return;
+        }
+
+        int listIconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
+        for (String artUrl : getForecastArtUrls()) {
+            try {
+                // The original is kept on disk, where the views, which load it with
+                // DiskCacheStrategy.ALL, can decode it at whatever size they are laid out
+                Glide.with(this)
+                        .load(artUrl)
+                        .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
+                        .get();
+
+                // The list's rows all show the art at the same size, so it can be decoded now.
+                // Clearing the target moves the drawable into the memory cache.
+                FutureTarget<GlideDrawable> listIcon = Glide.with(this)
+                        .load(artUrl)
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
+                        .fitCenter()
+                        .into(listIconSize, listIconSize);
+                try {
+                    listIcon.get();
+                } finally {
+                    Glide.clear(listIcon);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error prefetching art from " + artUrl, e);
+            }
+        }
+    }
+
+    private boolean isNetworkUnmetered() {
+        if (!Utility.isNetworkAvailable(this)) {
+            return false;
+        }
+        ConnectivityManager cm =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        return !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    /**
+     * Returns the distinct art URLs of the preferred location's forecast from today on, in the
+     * order the days are shown.
+     */
+    private Set<String> getForecastArtUrls() {
+        Set<String> artUrls = new LinkedHashSet<String>();
+        String location = Utility.getPreferredLocation(this);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                location, System.currentTimeMillis());
+        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return artUrls;
+        }
+        try {
+            while (data.moveToNext()) {
+                String artUrl = Utility.getArtUrlForWeatherCondition(this,
+                        data.getInt(INDEX_WEATHER_ID));
+                // There is no art for unknown kinds of weather
+                if (artUrl != null) {
+                    artUrls.add(artUrl);
+                }
+            }
+        } finally {
+            data.close();
+        }
+        return artUrls;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into weather ContentValues.
+ * <p>
+ * {@link #parse(InputStream, int)} pulls tokens straight off the HTTP stream, so no String copy
+ * of the response and no org.json object tree is ever built.  {@link #parseTree(String, int)}
+ * is the original org.json implementation, kept for devices without android.util.JsonReader.
+ * <p>
+ * The weather rows do not carry a location key: the caller adds it once the location row
+ * described by the forecast has been looked up or inserted.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits recording which fields of a day entry have been seen by the streaming parser.
+    private static final int SEEN_PRESSURE = 1;
+    private static final int SEEN_HUMIDITY = 1 << 1;
+    private static final int SEEN_WINDSPEED = 1 << 2;
+    private static final int SEEN_WIND_DIRECTION = 1 << 3;
+    private static final int SEEN_MAX = 1 << 4;
+    private static final int SEEN_MIN = 1 << 5;
+    private static final int SEEN_DESCRIPTION = 1 << 6;
+    private static final int SEEN_WEATHER_ID = 1 << 7;
+    private static final int SEEN_ALL = (1 << 8) - 1;
+
+    /**
+     * The parts of a forecast response that the sync adapter stores.
+     */
+    public static class Forecast {
+        /** The "cod" value of the response, HTTP_OK when the response has none. */
+        public int code = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double latitude;
+        public double longitude;
+        /** One entry per day, in the order returned by the server. */
+        public final ArrayList<ContentValues> days = new ArrayList<ContentValues>();
+    }
+
+    /**
+     * Parses a forecast response while it is being read from the network.
+     *
+     * @param in             The response body.  It is left open, so that the caller can finish
+     *                       reading it and keep the connection alive.
+     * @param julianStartDay The local julian day of the first forecast entry.
+     * @return the parsed forecast.
+     * @throws IOException   if the stream could not be read.
+     * @throws JSONException if the response is not a valid forecast.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            Forecast forecast = new Forecast();
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast, julianStartDay);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (forecast.code == HttpURLConnection.HTTP_OK
+                    && (!hasList || forecast.cityName == null)) {
+                throw new JSONException("Forecast response is missing the city or the list");
+            }
+            return forecast;
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports a token of the wrong type this way
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast)
+            throws IOException, JSONException {
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.latitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.longitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (forecast.cityName == null || !hasCoord) {
+            throw new JSONException("Incomplete city in forecast response");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, Forecast forecast, int julianStartDay)
+            throws IOException, JSONException {
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+        int day = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues weatherValues = new ContentValues();
+            int seen = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    weatherValues.put(WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+                    seen |= SEEN_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+                    seen |= SEEN_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+                    seen |= SEEN_WINDSPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    weatherValues.put(WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+                    seen |= SEEN_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    // Temperatures are in a child object called "temp".  Try not to name
+                    // variables "temp" when working with temperature.  It confuses everybody.
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String tempName = reader.nextName();
+                        if (OWM_MAX.equals(tempName)) {
+                            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                            seen |= SEEN_MAX;
+                        } else if (OWM_MIN.equals(tempName)) {
+                            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                            seen |= SEEN_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Description is in a child array called "weather", which is 1 element long.
+                    // That element also contains a weather code.
+                    reader.beginArray();
+                    if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC,
+                                        reader.nextString());
+                                seen |= SEEN_DESCRIPTION;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID,
+                                        reader.nextInt());
+                                seen |= SEEN_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (seen != SEEN_ALL) {
+                throw new JSONException("Incomplete forecast for day " + day);
+            }
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(julianStartDay + day));
+            forecast.days.add(weatherValues);
+            day++;
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Parses a complete forecast response held in memory, by building an org.json object tree.
+     *
+     * @param forecastJsonStr The response body.
+     * @param julianStartDay  The local julian day of the first forecast entry.
+     * @return the parsed forecast.
+     * @throws JSONException if the response is not a valid forecast.
+     */
+    public static Forecast parseTree(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.code = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.code != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.latitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.longitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(julianStartDay + i));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(OWM_WIND_DIRECTION));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(OWM_MIN));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
+
+            forecast.days.add(weatherValues);
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) of the last forecast stored for each
+ * location setting, so that the next sync can ask the server whether anything changed and
+ * skip the download, the parse and the database write when nothing did.
+ * <p>
+ * Validators are only offered for the exact request URL they were received for, and only on the
+ * local day the forecast was stored, because the stored rows are dated from that day.  Like
+ * {@link SunshineSyncAdapter}'s location status, this uses commit() and must not be used from
+ * the UI thread.
+ */
+public class ForecastValidatorCache {
+
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_URL = "url/";
+    private static final String KEY_JULIAN_DAY = "julian_day/";
+    private static final String KEY_ETAG = "etag/";
+    private static final String KEY_LAST_MODIFIED = "last_modified/";
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastValidatorCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Makes the request conditional if we hold validators for it.  Must be called before the
+     * connection is connected.
+     *
+     * @param connection      The unconnected forecast request.
+     * @param locationSetting The location string the request is for.
+     * @param julianStartDay  The local julian day the response would be stored for.
+     * @return true if the request was made conditional.
+     */
+    public boolean addConditionalHeaders(HttpURLConnection connection, String locationSetting,
+                                         int julianStartDay) {
+        String url = connection.getURL().toString();
+        if (!url.equals(mPrefs.getString(KEY_URL + locationSetting, null))
+                || julianStartDay != mPrefs.getInt(KEY_JULIAN_DAY + locationSetting, 0)) {
+            return false;
+        }
+        String etag = mPrefs.getString(KEY_ETAG + locationSetting, null);
+        String lastModified = mPrefs.getString(KEY_LAST_MODIFIED + locationSetting, null);
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * Records the validators of a response whose forecast has been stored.
+     *
+     * @param connection      The completed forecast request.
+     * @param locationSetting The location string the request was for.
+     * @param julianStartDay  The local julian day the forecast was stored for.
+     */
+    public void save(HttpURLConnection connection, String locationSetting, int julianStartDay) {
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            clear(locationSetting);
+            return;
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putString(KEY_URL + locationSetting, connection.getURL().toString());
+        editor.putInt(KEY_JULIAN_DAY + locationSetting, julianStartDay);
+        putOrRemove(editor, KEY_ETAG + locationSetting, etag);
+        putOrRemove(editor, KEY_LAST_MODIFIED + locationSetting, lastModified);
+        editor.commit();
+    }
+
+    /**
+     * Forgets the validators for a location, so that its next sync downloads the full forecast.
+     *
+     * @param locationSetting The location string.
+     */
+    public void clear(String locationSetting) {
+        mPrefs.edit()
+                .remove(KEY_URL + locationSetting)
+                .remove(KEY_JULIAN_DAY + locationSetting)
+                .remove(KEY_ETAG + locationSetting)
+                .remove(KEY_LAST_MODIFIED + locationSetting)
+                .commit();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+}
@@ -7,21 +7,24 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
@@ -31,11 +34,12 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.WeatherPayload;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -48,9 +52,7 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
@@ -61,11 +63,18 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-    private static final String ICON = "ICON";
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -75,9 +84,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-    private static final String HIGH_TEMP = "HIGH_TEMP";
-    private static final String LOW_TEMP = "LOW_TEMP";
-    private static final String DESC = "DESC";
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -92,6 +98,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] WEAR_WEATHER_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEAR_DATE = 0;
+    private static final int INDEX_WEAR_WEATHER_ID = 1;
+    private static final int INDEX_WEAR_MAX_TEMP = 2;
+    private static final int INDEX_WEAR_MIN_TEMP = 3;
+    private static final int INDEX_WEAR_SHORT_DESC = 4;
+
     @Override
     public void onConnected(@Nullable Bundle bundle) {
 
@@ -122,7 +143,38 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final String TAG = "WatchFaceSyncAdapter";
     private GoogleApiClient googleApiClient;
 
-    private PutDataMapRequest putDataMapReq;
+    // Forecasts for several locations are fetched in parallel, but over no more than this many
+    // connections at once
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    private static final long FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    // Shared with the Muzei artwork store, so connections are reused.  Artwork downloaded while
+    // a sync runs is counted in that sync's traffic.
+    private final SyncHttpClient mHttpClient = SyncHttpClient.getInstance();
+    private final ThreadPoolExecutor mFetchExecutor;
+    private final ForecastValidatorCache mValidatorCache;
+
+    /**
+     * The outcome of fetching the forecast of one location.
+     */
+    private static class ForecastFetch {
+        final String locationSetting;
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        // Set when the server answered that the stored forecast is still current
+        boolean notModified;
+        // Set when a forecast was received for the location
+        ForecastJsonParser.Forecast forecast;
+        HttpURLConnection connection;
+        // The operations storing the forecast in the batch
+        int firstOperation;
+        int operationCount;
+        // Set when storing the forecast changed the database
+        boolean changed;
+
+        ForecastFetch(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
@@ -132,20 +184,102 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 .addOnConnectionFailedListener(this)
                 .build();
         googleApiClient.connect();
+
+        mValidatorCache = new ForecastValidatorCache(context);
+        mFetchExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mFetchExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        mHttpClient.resetMetrics();
+        long syncStart = SystemClock.elapsedRealtime();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // The preferred location comes first
+        List<String> locations = Utility.getSyncLocations(getContext());
+        List<ForecastFetch> fetches = fetchForecasts(locations, julianStartDay);
+        if (fetches == null) {
+            Log.d(LOG_TAG, "Sync canceled");
+            return;
+        }
+        storeForecasts(fetches, julianStartDay);
+
+        Log.d(LOG_TAG, "Synced " + locations.size() + " locations in "
+                + (SystemClock.elapsedRealtime() - syncStart) + "ms. Traffic: "
+                + mHttpClient.getMetrics());
+    }
+
+    /**
+     * Fetches the forecasts of all the locations, several at a time.
+     *
+     * @return the fetches in the order of the locations, or null if the sync was canceled.
+     */
+    private List<ForecastFetch> fetchForecasts(List<String> locations, final int julianStartDay) {
+        List<ForecastFetch> fetches = new ArrayList<ForecastFetch>(locations.size());
+        if (locations.size() == 1) {
+            // No need to hand a single request to another thread
+            fetches.add(fetchForecast(locations.get(0), julianStartDay));
+            return fetches;
+        }
+
+        List<Future<ForecastFetch>> futures = new ArrayList<Future<ForecastFetch>>(locations.size());
+        for (final String location : locations) {
+            futures.add(mFetchExecutor.submit(new Callable<ForecastFetch>() {
+                @Override
+                public ForecastFetch call() {
+                    return fetchForecast(location, julianStartDay);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    fetches.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching " + locations.get(i), e.getCause());
+                    ForecastFetch failed = new ForecastFetch(locations.get(i));
+                    failed.status = LOCATION_STATUS_SERVER_DOWN;
+                    fetches.add(failed);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was canceled
+            for (Future<ForecastFetch> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return fetches;
+    }
+
+    /**
+     * Downloads and parses the forecast for one location.  Runs on the fetch executor when
+     * several locations are synced, so it must not touch anything but the location it was given.
+     */
+    private ForecastFetch fetchForecast(String locationQuery, int julianStartDay) {
+        ForecastFetch fetch = new ForecastFetch(locationQuery);
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        InputStream inputStream = null;
 
         String format = "json";
         String units = "metric";
@@ -174,267 +308,356 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             URL url = new URL(builtUri.toString());
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            urlConnection = mHttpClient.open(url);
+            fetch.connection = urlConnection;
+
+            // If the forecast we stored last time is still in the database, only ask for it
+            // again if it has changed since.
+            if (hasStoredForecast(locationQuery)) {
+                mValidatorCache.addConditionalHeaders(urlConnection, locationQuery, julianStartDay);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (mHttpClient.execute(urlConnection) == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed upstream: the database already has this forecast.  The
+                // widgets, Muzei and Wear may still show another location's, which
+                // storeForecasts() checks.
+                fetch.notModified = true;
+                fetch.status = LOCATION_STATUS_OK;
+                return fetch;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            inputStream = mHttpClient.getInputStream(urlConnection);
+
+            ForecastJsonParser.Forecast forecast;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Parse straight off the wire.  An empty stream surfaces as an EOFException.
+                forecast = ForecastJsonParser.parse(inputStream, julianStartDay);
+            } else {
+                // JsonReader is not available, so read the input stream into a String
+                String forecastJsonStr = readFully(inputStream);
+                if (forecastJsonStr.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    fetch.status = LOCATION_STATUS_SERVER_DOWN;
+                    return fetch;
+                }
+                forecast = ForecastJsonParser.parseTree(forecastJsonStr, julianStartDay);
+            }
+
+            // do we have an error?
+            switch (forecast.code) {
+                case HttpURLConnection.HTTP_OK:
+                    fetch.forecast = forecast;
+                    fetch.status = LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    fetch.status = LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    fetch.status = LOCATION_STATUS_SERVER_DOWN;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            fetch.status = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            fetch.status = LOCATION_STATUS_SERVER_INVALID;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            // Don't disconnect: releasing the response keeps the connection for the next sync
+            mHttpClient.release(urlConnection, inputStream);
         }
-        return;
+        return fetch;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Reads the whole response into a String, for the org.json parser.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    private static String readFully(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+        return buffer.toString();
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Checks whether the database still holds a current forecast for the location, which is
+     * what makes answering a conditional request with "not modified" safe.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Stores the fetched forecasts in a single transaction and lets everybody who shows weather
+     * know about it.
+     *
+     * @param fetches        The fetches returned by {@link #fetchForecasts(List, int)}, preferred
+     *                       location first.
+     * @param julianStartDay The local julian day of the first forecast entry.
+     */
+    private void storeForecasts(List<ForecastFetch> fetches, int julianStartDay) {
+        Context context = getContext();
+        Map<String, Long> locationIds = queryLocationIds(fetches);
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<ForecastFetch> stored = new ArrayList<ForecastFetch>();
+        for (ForecastFetch fetch : fetches) {
+            if (fetch.forecast == null || fetch.forecast.days.isEmpty()) {
+                continue;
+            }
+            fetch.firstOperation = operations.size();
+            addForecastOperations(operations, fetch, locationIds.get(fetch.locationSetting));
+            fetch.operationCount = operations.size() - fetch.firstOperation;
+            stored.add(fetch);
+        }
 
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        boolean committed = false;
+        boolean pastDaysDeleted = false;
+        if (!stored.isEmpty()) {
+            // delete old data so we don't build up an endless history
+            Time dayTime = new Time();
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                    .build());
+            try {
+                ContentProviderResult[] results = context.getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+                committed = true;
+                for (ForecastFetch fetch : stored) {
+                    int end = fetch.firstOperation + fetch.operationCount;
+                    for (int i = fetch.firstOperation; i < end && !fetch.changed; i++) {
+                        // Inserts that found their row up to date return a count, not a uri
+                        fetch.changed = results[i].uri != null;
+                    }
                 }
+                pastDaysDeleted = results[results.length - 1].count > 0;
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing forecasts", e);
             }
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        for (ForecastFetch fetch : fetches) {
+            if (fetch.notModified) {
+                continue;
+            }
+            if (committed && stored.contains(fetch)) {
+                mValidatorCache.save(fetch.connection, fetch.locationSetting, julianStartDay);
+            } else {
+                mValidatorCache.clear(fetch.locationSetting);
+            }
+        }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+        // A new day moves "today" to another row even when no row changed
+        ForecastFetch preferred = fetches.get(0);
+        boolean preferredChanged =
+                preferred.changed || (pastDaysDeleted && stored.contains(preferred));
+        // A 304, or a forecast stored without changing any row, still has to reach the
+        // widgets, Muzei and Wear if they show another location's
+        boolean preferredStored =
+                preferred.notModified || (committed && stored.contains(preferred));
+        if (shouldPublishForecast(context, preferred.locationSetting, preferredChanged,
+                preferredStored)) {
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+            updateWear();
+            ArtPrefetchService.prefetch(getContext());
+            setPublishedLocation(context, preferred.locationSetting);
+        }
+        int changedCount = 0;
+        for (ForecastFetch fetch : stored) {
+            if (fetch.changed) {
+                changedCount++;
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + stored.size() + " of " + fetches.size()
+                + " forecasts stored, " + changedCount + " changed");
+        setLocationStatus(context, preferred.status);
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Returns whether the widgets, Muzei, the notification and Wear should be given a location's
+     * forecast after a sync: when it changed, or when they last got another location's, as they
+     * have after the preferred location was switched back to one whose forecast is still stored.
+     *
+     * @param forecastChanged whether the sync changed the rows that show the forecast
+     * @param forecastStored  whether the forecast is in the database
+     */
+    static boolean shouldPublishForecast(Context context, String locationSetting,
+                                         boolean forecastChanged, boolean forecastStored) {
+        if (!forecastStored) {
+            return false;
+        }
+        if (forecastChanged) {
+            return true;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return !locationSetting.equals(prefs.getString(
+                context.getString(R.string.pref_last_published_location), null));
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Remembers the location whose forecast the widgets, Muzei, the notification and Wear got.
+     */
+    static void setPublishedLocation(Context context, String locationSetting) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_last_published_location),
+                        locationSetting)
+                .apply();
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * Looks up the row ids of the locations that are already in the database.
+     */
+    private Map<String, Long> queryLocationIds(List<ForecastFetch> fetches) {
+        Map<String, Long> locationIds = new HashMap<String, Long>();
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " IN (");
+        String[] selectionArgs = new String[fetches.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = fetches.get(i).locationSetting;
+        }
+        selection.append(')');
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(),
+                selectionArgs,
+                null);
+        if (cursor == null) {
+            return locationIds;
+        }
+        while (cursor.moveToNext()) {
+            locationIds.put(cursor.getString(1), cursor.getLong(0));
+        }
+        cursor.close();
+        return locationIds;
+    }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                updateWear();
+    /**
+     * Adds the operations storing one location's forecast, and its location row if the database
+     * does not have it yet.
+     */
+    private static void addForecastOperations(ArrayList<ContentProviderOperation> operations,
+                                              ForecastFetch fetch, Long locationId) {
+        ForecastJsonParser.Forecast forecast = fetch.forecast;
+        int locationOperation = -1;
+        if (locationId == null) {
+            locationOperation = operations.size();
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            fetch.locationSetting)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.latitude)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.longitude)
+                    .build());
+        }
+        for (ContentValues weatherValues : forecast.days) {
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues);
+            if (locationId != null) {
+                builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            } else {
+                builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationOperation);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            operations.add(builder.build());
         }
     }
 
-
+    /**
+     * Sends the watch face today's forecast and the days after it, unless the watch already has
+     * exactly this forecast.
+     */
     private void updateWear() {
-        Log.e(TAG, "updating Wear");
         Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
 
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationQuery, System.currentTimeMillis());
 
         // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        putDataMapReq = PutDataMapRequest.create("/weather_data").setUrgent();
-        if (cursor == null || !cursor.moveToFirst())
+        Cursor cursor = context.getContentResolver().query(weatherUri, WEAR_WEATHER_PROJECTION,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        List<WeatherPayload.Day> days = new ArrayList<WeatherPayload.Day>();
+        Time dayTime = new Time();
+        try {
+            while (days.size() < WeatherPayload.MAX_DAYS && cursor.moveToNext()) {
+                long date = cursor.getLong(INDEX_WEAR_DATE);
+                dayTime.set(date);
+                days.add(new WeatherPayload.Day(
+                        Time.getJulianDay(date, dayTime.gmtoff),
+                        cursor.getInt(INDEX_WEAR_WEATHER_ID),
+                        cursor.getDouble(INDEX_WEAR_MAX_TEMP),
+                        cursor.getDouble(INDEX_WEAR_MIN_TEMP),
+                        cursor.getString(INDEX_WEAR_SHORT_DESC)));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (days.isEmpty()) {
+            return;
+        }
+
+        byte[] payload = new WeatherPayload(days).toBytes();
+        final long hash = WeatherPayload.hash(payload);
+        final long todayHash = WeatherPayload.hash(new WeatherPayload(days.subList(0, 1)).toBytes());
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String hashKey = context.getString(R.string.pref_last_wear_hash);
+        final String todayHashKey = context.getString(R.string.pref_last_wear_today_hash);
+        if (prefs.getLong(hashKey, -1) == hash) {
+            Log.d(LOG_TAG, "Wear already has this forecast");
             return;
+        }
 
-        int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-        double high = cursor.getDouble(INDEX_MAX_TEMP);
-        double low = cursor.getDouble(INDEX_MIN_TEMP);
-        String desc = cursor.getString(INDEX_SHORT_DESC);
-        putDataMapReq.getDataMap().putDouble(HIGH_TEMP, high);
-        putDataMapReq.getDataMap().putDouble(LOW_TEMP, low);
-        putDataMapReq.getDataMap().putString(DESC, desc);
-        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        Log.e("artresourceId", String.valueOf(artResourceId));
-        // On Honeycomb and higher devices, we can retrieve the size of the large icon
-        // Prior to that, we use a fixed size
-        // Retrieve the large icon
-        putDataMapReq.getDataMap().putInt(ICON, weatherId);
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create(WeatherPayload.PATH);
+        putDataMapReq.getDataMap().putByteArray(WeatherPayload.KEY_PAYLOAD, payload);
+        putDataMapReq.getDataMap().putLong(WeatherPayload.KEY_HASH, hash);
+        // The phone can't see whether the watch face is on screen, but today's weather is the
+        // part of the forecast the face shows, so only a change to that is worth waking the
+        // watch up for.  The rest of the outlook goes with the next batch.
+        if (prefs.getLong(todayHashKey, -1) != todayHash) {
+            putDataMapReq.setUrgent();
+        }
         PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
         Wearable.DataApi.putDataItem(googleApiClient, putDataReq).setResultCallback(new ResultCallbacks<DataApi.DataItemResult>() {
             @Override
             public void onSuccess(@NonNull DataApi.DataItemResult dataItemResult) {
-                Log.e(LOG_TAG, "Data sent successfully");
+                prefs.edit()
+                        .putLong(hashKey, hash)
+                        .putLong(todayHashKey, todayHash)
+                        .apply();
+                Log.d(LOG_TAG, "Data sent successfully");
             }
 
             @Override
@@ -513,18 +736,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
                     // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context)
+                            .get(artUrl, artResourceId, largeIconWidth, largeIconHeight);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -575,56 +788,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
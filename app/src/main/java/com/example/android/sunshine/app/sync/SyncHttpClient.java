@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP client used by the sync package.
+ * <p>
+ * Requests ask for gzip or deflate content and the response is decompressed here, which lets
+ * us count both the bytes that came over the network and the bytes handed to the parser.
+ * Connections are never disconnected: {@link #release(HttpURLConnection, InputStream)} reads
+ * the body to the end and closes it, which hands the socket back to the platform's keep-alive
+ * pool so the next request of the sync (or of the next sync) can reuse it.
+ * <p>
+ * Instances are safe to use from several threads at once.  The app shares one, from
+ * {@link #getInstance()}, so that everything it downloads goes through the same pool.
+ */
+public class SyncHttpClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    // Bodies larger than this are not worth draining to keep the connection alive
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mBytesOnWire = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+    private final AtomicLong mTotalTimeToFirstByteMillis = new AtomicLong();
+    private final AtomicLong mMaxTimeToFirstByteMillis = new AtomicLong();
+
+    /**
+     * A snapshot of the traffic handled by a client since its metrics were last reset.
+     */
+    public static class Metrics {
+        public final long requestCount;
+        /** Body bytes received from the network, before decompression. */
+        public final long bytesOnWire;
+        /** Body bytes handed to the caller, after decompression. */
+        public final long bytesDecoded;
+        public final long totalTimeToFirstByteMillis;
+        public final long maxTimeToFirstByteMillis;
+
+        Metrics(long requestCount, long bytesOnWire, long bytesDecoded,
+                long totalTimeToFirstByteMillis, long maxTimeToFirstByteMillis) {
+            this.requestCount = requestCount;
+            this.bytesOnWire = bytesOnWire;
+            this.bytesDecoded = bytesDecoded;
+            this.totalTimeToFirstByteMillis = totalTimeToFirstByteMillis;
+            this.maxTimeToFirstByteMillis = maxTimeToFirstByteMillis;
+        }
+
+        @Override
+        public String toString() {
+            return requestCount + " requests, " + bytesOnWire + " bytes on wire, "
+                    + bytesDecoded + " bytes decoded, time to first byte "
+                    + (requestCount == 0 ? 0 : totalTimeToFirstByteMillis / requestCount)
+                    + "ms avg / " + maxTimeToFirstByteMillis + "ms max";
+        }
+    }
+
+    private static SyncHttpClient sInstance;
+
+    /**
+     * Returns the client shared by the sync adapter and the Muzei artwork store.
+     */
+    public static synchronized SyncHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncHttpClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates an unconnected GET request.  Callers may add headers before passing it to
+     * {@link #execute(HttpURLConnection)}.
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Asking for an encoding ourselves turns off the platform's transparent gzip support,
+        // which is what lets getInputStream() count the compressed bytes.
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        return connection;
+    }
+
+    /**
+     * Sends the request and waits for the response headers.
+     *
+     * @return the HTTP status code of the response.
+     */
+    public int execute(HttpURLConnection connection) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int responseCode = connection.getResponseCode();
+        long timeToFirstByte = SystemClock.elapsedRealtime() - start;
+
+        mRequestCount.incrementAndGet();
+        mTotalTimeToFirstByteMillis.addAndGet(timeToFirstByte);
+        long max;
+        do {
+            max = mMaxTimeToFirstByteMillis.get();
+        } while (timeToFirstByte > max
+                && !mMaxTimeToFirstByteMillis.compareAndSet(max, timeToFirstByte));
+        return responseCode;
+    }
+
+    /**
+     * Returns the decompressed response body.  Pass it to
+     * {@link #release(HttpURLConnection, InputStream)} once done with it.
+     */
+    public InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        InputStream in = new CountingInputStream(connection.getInputStream(), mBytesOnWire);
+        String encoding = connection.getContentEncoding();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            in = new GZIPInputStream(in);
+        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            in = new InflaterInputStream(in);
+        }
+        return new CountingInputStream(in, mBytesDecoded);
+    }
+
+    /**
+     * Finishes with a request, leaving its connection in the pool when possible.
+     *
+     * @param connection The request, may be null.
+     * @param in         The stream returned by {@link #getInputStream(HttpURLConnection)}, or
+     *                   null if the body was never opened.
+     */
+    public void release(HttpURLConnection connection, InputStream in) {
+        if (connection == null) {
+            return;
+        }
+        if (in == null) {
+            // Bodies of unread responses (a 304 or an error) still have to be consumed
+            try {
+                in = connection.getInputStream();
+            } catch (IOException e) {
+                in = connection.getErrorStream();
+            }
+        }
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            int read;
+            while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                drained += read;
+            }
+            if (drained >= MAX_DRAIN_BYTES) {
+                // Not worth reading on; give up on this connection
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more we can do with this connection
+            }
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(mRequestCount.get(), mBytesOnWire.get(), mBytesDecoded.get(),
+                mTotalTimeToFirstByteMillis.get(), mMaxTimeToFirstByteMillis.get());
+    }
+
+    public void resetMetrics() {
+        mRequestCount.set(0);
+        mBytesOnWire.set(0);
+        mBytesDecoded.set(0);
+        mTotalTimeToFirstByteMillis.set(0);
+        mMaxTimeToFirstByteMillis.set(0);
+    }
+
+    /**
+     * Adds the number of bytes read through it to a counter.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCounter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
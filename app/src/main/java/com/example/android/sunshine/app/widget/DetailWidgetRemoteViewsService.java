@@ -1,24 +1,28 @@
 package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -42,103 +46,168 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    /**
+     * One row of the widget, formatted when the data set changes.  A row that formats the same
+     * as before keeps the RemoteViews built for it, so that only new and changed days are built
+     * again after a sync.
+     */
+    private static final class Row {
+        // The weather row's _id, which the upsert in WeatherProvider keeps stable across syncs
+        final long id;
+        final long date;
+        final String locationSetting;
+        final int iconResource;
+        // null when using the local graphics
+        final String artUrl;
+        final String description;
+        final String formattedDate;
+        final String formattedMaxTemperature;
+        final String formattedMinTemperature;
+
+        // Built the first time the row is shown
+        RemoteViews views;
+
+        Row(Context context, Cursor data, String locationSetting, boolean usingLocalGraphics) {
+            id = data.getLong(INDEX_WEATHER_ID);
+            date = data.getLong(INDEX_WEATHER_DATE);
+            this.locationSetting = locationSetting;
+            int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+            iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+            artUrl = usingLocalGraphics ? null
+                    : Utility.getArtUrlForWeatherCondition(context, weatherId);
+            description = data.getString(INDEX_WEATHER_DESC);
+            formattedDate = Utility.getFriendlyDayString(context, date, false);
+            formattedMaxTemperature =
+                    Utility.formatTemperature(context, data.getDouble(INDEX_WEATHER_MAX_TEMP));
+            formattedMinTemperature =
+                    Utility.formatTemperature(context, data.getDouble(INDEX_WEATHER_MIN_TEMP));
+        }
+
+        // Whether the row shows the same thing as another, ignoring the views
+        boolean showsSameAs(Row row) {
+            return row != null
+                    && id == row.id
+                    && date == row.date
+                    && iconResource == row.iconResource
+                    && TextUtils.equals(locationSetting, row.locationSetting)
+                    && TextUtils.equals(artUrl, row.artUrl)
+                    && TextUtils.equals(description, row.description)
+                    && TextUtils.equals(formattedDate, row.formattedDate)
+                    && TextUtils.equals(formattedMaxTemperature, row.formattedMaxTemperature)
+                    && TextUtils.equals(formattedMinTemperature, row.formattedMinTemperature);
+        }
+    }
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            private volatile List<Row> rows = Collections.emptyList();
+            private int iconSize;
 
             @Override
             public void onCreate() {
-                // Nothing to do
+                iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
             }
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
+                Cursor data;
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-                Binder.restoreCallingIdentity(identityToken);
+                try {
+                    Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                            .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                    data = getContentResolver().query(weatherForLocationUri,
+                            FORECAST_COLUMNS,
+                            null,
+                            null,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                } finally {
+                    Binder.restoreCallingIdentity(identityToken);
+                }
+                if (data == null) {
+                    rows = Collections.emptyList();
+                    return;
+                }
+
+                LongSparseArray<Row> previousRows = new LongSparseArray<Row>(rows.size());
+                for (Row row : rows) {
+                    previousRows.put(row.id, row);
+                }
+                boolean usingLocalGraphics =
+                        Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this);
+                List<Row> newRows = new ArrayList<Row>(data.getCount());
+                int changedCount = 0;
+                try {
+                    while (data.moveToNext()) {
+                        Row row = new Row(DetailWidgetRemoteViewsService.this, data, location,
+                                usingLocalGraphics);
+                        Row previous = previousRows.get(row.id);
+                        if (row.showsSameAs(previous)) {
+                            row = previous;
+                        } else {
+                            changedCount++;
+                        }
+                        newRows.add(row);
+                    }
+                } finally {
+                    data.close();
+                }
+                rows = newRows;
+                Log.d(LOG_TAG, changedCount + " of " + newRows.size() + " rows changed");
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                rows = Collections.emptyList();
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return rows.size();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                if (position == AdapterView.INVALID_POSITION || position >= rows.size()) {
                     return null;
                 }
+                Row row = rows.get(position);
+                if (row.views == null) {
+                    row.views = buildViews(row);
+                }
+                return row.views;
+            }
+
+            private RemoteViews buildViews(Row row) {
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
                 Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
+                if (row.artUrl != null) {
+                    weatherArtImage = WeatherArtCache.getInstance(DetailWidgetRemoteViewsService.this)
+                            .get(row.artUrl, row.iconResource, iconSize, iconSize);
                 }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon, row.iconResource);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    setRemoteContentDescription(views, description);
+                    setRemoteContentDescription(views, row.description);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
-                views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setTextViewText(R.id.widget_date, row.formattedDate);
+                views.setTextViewText(R.id.widget_description, row.description);
+                views.setTextViewText(R.id.widget_high_temperature, row.formattedMaxTemperature);
+                views.setTextViewText(R.id.widget_low_temperature, row.formattedMinTemperature);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                        locationSetting,
-                        dateInMillis);
+                        row.locationSetting,
+                        row.date);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
                 return views;
@@ -161,8 +230,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                if (position < rows.size())
+                    return rows.get(position).id;
                 return position;
             }
 
@@ -27,27 +27,35 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 /**
  * Provider for a horizontally expandable widget showing today's weather.
  *
- * Delegates widget updating to {@link TodayWidgetIntentService} to ensure that
- * data retrieval is done on a background thread
+ * Delegates widget updating to {@link TodayWidgetIntentService}, through
+ * {@link WidgetUpdateCoordinator}, to ensure that data retrieval is done on a background thread
  */
 public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // The host is asking for these widgets' views, whether or not they changed
+        WidgetUpdateCoordinator.forget(appWidgetIds);
+        WidgetUpdateCoordinator.requestUpdate(context);
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        WidgetUpdateCoordinator.requestUpdate(context);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        // The host may hand these ids out again, to widgets that have been sent nothing yet
+        WidgetUpdateCoordinator.forget(appWidgetIds);
     }
 
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            WidgetUpdateCoordinator.requestUpdate(context);
         }
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.SparseArray;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brings the widgets up to date after the forecast, the size of a widget or a setting changed.
+ * A burst of such events, like a sync followed by a change of units, makes one update in
+ * {@link TodayWidgetIntentService}: the forecast is read and formatted once, and a Today widget
+ * is only sent new RemoteViews when they would show something other than what it was last sent.
+ */
+public final class WidgetUpdateCoordinator {
+
+    // How long an update waits for the rest of a burst of events
+    static final long COALESCE_WINDOW_MS = 500;
+
+    // Set from when an update is asked for until it starts reading the forecast
+    private static final AtomicBoolean sPending = new AtomicBoolean();
+    // What each Today widget was last sent, by widget id
+    private static final SparseArray<String> sSentContent = new SparseArray<String>();
+
+    private WidgetUpdateCoordinator() {
+    }
+
+    /**
+     * Updates the widgets shortly, together with whatever else asks for an update until then.
+     */
+    public static void requestUpdate(Context context) {
+        if (sPending.compareAndSet(false, true)) {
+            context.startService(new Intent(context, TodayWidgetIntentService.class));
+        }
+    }
+
+    /**
+     * Makes the next update send these widgets their views even if nothing changed, for when
+     * the widget host asks for them, and drops what deleted widgets were sent.
+     */
+    static void forget(int[] appWidgetIds) {
+        synchronized (sSentContent) {
+            for (int appWidgetId : appWidgetIds) {
+                sSentContent.delete(appWidgetId);
+            }
+        }
+    }
+
+    /**
+     * Called as an update starts reading the forecast: anything that asks for an update from
+     * now on needs another one.
+     */
+    static void onUpdateStarting() {
+        sPending.set(false);
+    }
+
+    /**
+     * Returns whether a widget should be sent views showing the given content, and if so
+     * remembers that it has been.
+     */
+    static boolean shouldSend(int appWidgetId, String content) {
+        synchronized (sSentContent) {
+            if (content.equals(sSentContent.get(appWidgetId))) {
+                return false;
+            }
+            sSentContent.put(appWidgetId, content);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Groups the OpenWeatherMap condition codes into the kinds of weather we have graphics for.
+ * Both the app and the watch face map a kind to their own resources, so this table is the one
+ * place that decides which code gets which picture.
+ * <p>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    // The kinds of weather, usable as indices into a table of resources
+    public static final int UNKNOWN = 0;
+    public static final int STORM = 1;
+    public static final int LIGHT_RAIN = 2;
+    public static final int RAIN = 3;
+    public static final int SNOW = 4;
+    public static final int FOG = 5;
+    public static final int CLEAR = 6;
+    public static final int LIGHT_CLOUDS = 7;
+    public static final int CLOUDS = 8;
+    public static final int COUNT = 9;
+
+    // Every code OpenWeatherMap uses is below this
+    public static final int MAX_CODE = 1000;
+
+    private static final byte[] CONDITIONS = new byte[MAX_CODE];
+
+    static {
+        fill(200, 232, STORM);
+        fill(300, 321, LIGHT_RAIN);
+        fill(500, 504, RAIN);
+        fill(511, 511, SNOW);
+        fill(520, 531, RAIN);
+        fill(600, 622, SNOW);
+        // 761 (dust) has always been shown as fog
+        fill(701, 761, FOG);
+        fill(781, 781, STORM);
+        fill(800, 800, CLEAR);
+        fill(801, 801, LIGHT_CLOUDS);
+        fill(802, 804, CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void fill(int firstCode, int lastCode, int condition) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            CONDITIONS[code] = (byte) condition;
+        }
+    }
+
+    /**
+     * Returns the kind of weather of an OpenWeatherMap condition code, or {@link #UNKNOWN} if we
+     * have no graphics for it.
+     */
+    public static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= MAX_CODE) {
+            return UNKNOWN;
+        }
+        return CONDITIONS[weatherId];
+    }
+}
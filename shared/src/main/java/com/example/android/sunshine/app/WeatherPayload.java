@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The forecast the phone sends the watch face: today and the next few days, in a versioned
+ * binary form of a few dozen bytes.  It goes in the {@link #PATH} data item as
+ * {@link #KEY_PAYLOAD}, next to its {@link #hash} as {@link #KEY_HASH}, so either side can tell
+ * without decoding whether it has seen this forecast before.
+ * <p>
+ * Version 1 is a byte holding the version and a byte holding the number of days, then for each
+ * day its julian day as an int, its condition code as a short, its high and its low in tenths
+ * of a degree Celsius as shorts, and its description in modified UTF-8.
+ */
+public final class WeatherPayload {
+
+    public static final String PATH = "/weather_data";
+    public static final String KEY_PAYLOAD = "PAYLOAD";
+    public static final String KEY_HASH = "HASH";
+
+    // Today and the days after it
+    public static final int MAX_DAYS = 5;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The forecast for one day.
+     */
+    public static final class Day {
+        public final int julianDay;
+        public final int weatherId;
+        // In degrees Celsius, to a tenth of a degree
+        public final double high;
+        public final double low;
+        public final String description;
+
+        public Day(int julianDay, int weatherId, double high, double low, String description) {
+            this.julianDay = julianDay;
+            this.weatherId = weatherId;
+            this.high = toTenths(high) / 10.0;
+            this.low = toTenths(low) / 10.0;
+            this.description = description != null ? description : "";
+        }
+    }
+
+    // In the order of their julian days
+    public final List<Day> days;
+
+    public WeatherPayload(List<Day> days) {
+        if (days.size() > MAX_DAYS) {
+            days = days.subList(0, MAX_DAYS);
+        }
+        this.days = Collections.unmodifiableList(new ArrayList<Day>(days));
+    }
+
+    /**
+     * Returns the forecast for a julian day, or null if it isn't one of the days.
+     */
+    public Day getDay(int julianDay) {
+        for (Day day : days) {
+            if (day.julianDay == julianDay) {
+                return day;
+            }
+        }
+        return null;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + days.size() * 24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeByte(days.size());
+            for (Day day : days) {
+                out.writeInt(day.julianDay);
+                out.writeShort(day.weatherId);
+                out.writeShort(toTenths(day.high));
+                out.writeShort(toTenths(day.low));
+                out.writeUTF(day.description);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a payload written by {@link #toBytes()}.
+     *
+     * @throws IOException if the bytes are cut short or of a version this build doesn't know
+     */
+    public static WeatherPayload fromBytes(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown weather payload version " + version);
+        }
+        int count = in.readUnsignedByte();
+        List<Day> days = new ArrayList<Day>(count);
+        for (int i = 0; i < count; i++) {
+            int julianDay = in.readInt();
+            int weatherId = in.readShort();
+            double high = in.readShort() / 10.0;
+            double low = in.readShort() / 10.0;
+            String description = in.readUTF();
+            days.add(new Day(julianDay, weatherId, high, low, description));
+        }
+        return new WeatherPayload(days);
+    }
+
+    /**
+     * Returns a checksum of the encoded payload, which changes whenever the forecast does.
+     */
+    public static long hash(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static int toTenths(double temperature) {
+        long tenths = Math.round(temperature * 10);
+        return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast the phone sent in a file, as the {@link WeatherPayload} bytes it
+ * arrived as, so that the watch face can show the weather as soon as it starts, and move on to
+ * the next day's forecast at midnight, without waiting for the phone.
+ */
+final class ForecastStore {
+
+    private static final String TAG = ForecastStore.class.getSimpleName();
+    private static final String FILE_NAME = "forecast";
+
+    private final AtomicFile mFile;
+
+    ForecastStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Returns the stored payload, or null if there is none.  The file is a few hundred bytes at
+     * most, so this is quick enough to call before the first frame.
+     */
+    byte[] read() {
+        try {
+            // Restores the last complete write if the process died in the middle of another
+            return mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read the stored forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the stored payload, off the calling thread.  Writes happen in the order they
+     * were asked for.
+     */
+    void write(final byte[] payload) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = mFile.startWrite();
+                    out.write(payload);
+                    mFile.finishWrite(out);
+                } catch (IOException e) {
+                    Log.e(TAG, "Couldn't store the forecast", e);
+                    if (out != null) {
+                        mFile.failWrite(out);
+                    }
+                }
+            }
+        });
+    }
+}
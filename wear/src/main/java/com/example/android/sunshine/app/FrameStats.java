@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Measures how long the watch face takes to draw a frame and how many objects it allocates
+ * doing so, and logs the averages every {@link #FRAMES_PER_LOG} frames.  Turned on with
+ * <pre>adb shell setprop log.tag.FrameStats VERBOSE</pre> before the watch face is created;
+ * otherwise it costs one boolean check per frame.
+ */
+final class FrameStats {
+
+    private static final String TAG = "FrameStats";
+    private static final int FRAMES_PER_LOG = 60;
+
+    private final String mName;
+    private final boolean mEnabled;
+
+    private long mStartNanos;
+    private int mStartAllocations;
+
+    private int mFrames;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mTotalAllocations;
+
+    // The allocation counters are deprecated, but still the only per-thread count there is
+    @SuppressWarnings("deprecation")
+    FrameStats(String name) {
+        mName = name;
+        mEnabled = Log.isLoggable(TAG, Log.VERBOSE);
+        if (mEnabled) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    void beginFrame() {
+        if (mEnabled) {
+            mStartAllocations = Debug.getThreadAllocCount();
+            mStartNanos = System.nanoTime();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - mStartNanos;
+        int allocations = Debug.getThreadAllocCount() - mStartAllocations;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        mTotalAllocations += allocations;
+        if (++mFrames == FRAMES_PER_LOG) {
+            Log.v(TAG, mName + ": " + mFrames + " frames, " + (mTotalNanos / mFrames / 1000)
+                    + "us avg, " + (mMaxNanos / 1000) + "us max, "
+                    + ((float) mTotalAllocations / mFrames) + " allocations per frame");
+            mFrames = 0;
+            mTotalNanos = 0;
+            mMaxNanos = 0;
+            mTotalAllocations = 0;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    void release() {
+        if (mEnabled) {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -11,8 +11,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -20,6 +18,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
+import android.text.format.Time;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -36,6 +35,8 @@ import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
@@ -57,6 +58,9 @@ public class WatchFaceService extends CanvasWatchFaceService {
         */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
 
+    // The text only changes once a minute, so that's as often as it is formatted and measured
+    private static final long TEXT_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
+
 
     @Override
     public Engine onCreateEngine() {
@@ -65,16 +69,38 @@ public class WatchFaceService extends CanvasWatchFaceService {
     }
 
 
+    // The icon of each kind of WeatherConditions; clear skies when we don't know
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_clear,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
     /* implement service callback methods */
     private class Engine extends CanvasWatchFaceService.Engine implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
         Bitmap weatherIcon;
+        WeatherIconCache mIconCache;
+        // Whether weatherId has come from the phone yet
+        boolean mHaveWeatherId;
         Double maxTemp = 0d;
         Double minTemp = 0d;
         String desc = "";
         int weatherId = 0;
+        // The forecast the phone sent last, and its checksum
+        WeatherPayload mForecast;
+        long mForecastHash;
+        ForecastStore mForecastStore;
 
         static final String COLON_STRING = ":";
+        // What the weather is lined up under
+        static final String WIDEST_TIME = "00:00";
         static final int MSG_UPDATE_TIME = 0;
 
         private Calendar mCalendar;
@@ -103,6 +129,30 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
         Date mDate;
 
+        /*
+            What onDraw() draws, worked out when the minute, the date, the weather or the bounds
+            change rather than every frame, so that drawing a frame allocates nothing.  The
+            background, the date and the weather are drawn into mStaticLayer, which is only
+            redrawn when one of them changes; a frame copies it and draws the time on top.
+         */
+        private final char[] mTimeChars = new char[5];
+        private long mTextMinute = -1;
+        private int mDateDay = -1;
+        private char mZeroDigit;
+        private String mDateText = "";
+        private String mMaxText = "";
+        private String mMinText = "";
+        private Bitmap mStaticLayer;
+        private Canvas mStaticCanvas;
+        private boolean mStaticLayerValid;
+        private final Rect mLayoutBounds = new Rect();
+        // How far the face is moved in ambient mode to spare screens prone to burn-in
+        private int mBurnInShift;
+        private float mTimeX;
+
+        private FrameStats mInteractiveFrameStats;
+        private FrameStats mAmbientFrameStats;
+
         int mInteractiveBackgroundColor =
                 DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND;
         int mInteractiveHourDigitsColor =
@@ -136,6 +186,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                invalidateText();
                 invalidate();
             }
         };
@@ -171,6 +222,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
             mMinutePaint = createTextPaint(mInteractiveMinuteDigitsColor);
             mColonPaint = createTextPaint(mInteractiveHourDigitsColor);
             mIconPaint = new Paint();
+            mIconCache = new WeatherIconCache(resources, ICON_RESOURCES);
 
             mMaxPaint = createTextPaint(mInteractiveHourDigitsColor, BOLD_TYPEFACE);
             mMinPaint = createTextPaint(resources.getColor(R.color.digital_date));
@@ -179,7 +231,19 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             // allocate a Calendar to calculate local time using the UTC time and time zone
             mCalendar = Calendar.getInstance();
+
+            // Show the forecast we had last, until the phone has something newer
+            mForecastStore = new ForecastStore(WatchFaceService.this);
+            byte[] storedForecast = mForecastStore.read();
+            if (storedForecast != null
+                    && readForecast(storedForecast, WeatherPayload.hash(storedForecast))) {
+                showForecast(System.currentTimeMillis());
+            }
             mDate = new Date();
+            updateTemperatureText();
+            mBurnInShift = resources.getDimensionPixelSize(R.dimen.digital_burn_in_shift);
+            mInteractiveFrameStats = new FrameStats("WatchFace interactive");
+            mAmbientFrameStats = new FrameStats("WatchFace ambient");
 //////            initFormats();
             googleApiClient = new GoogleApiClient.Builder(WatchFaceService.this)
                     .addApi(Wearable.API)
@@ -192,6 +256,17 @@ public class WatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mInteractiveFrameStats.release();
+            mAmbientFrameStats.release();
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+            }
+            mIconCache.clear();
+            if (googleApiClient.isConnected()) {
+                Wearable.DataApi.removeListener(googleApiClient, onDataChangedListener);
+            }
+            googleApiClient.disconnect();
             super.onDestroy();
         }
 
@@ -227,6 +302,9 @@ public class WatchFaceService extends CanvasWatchFaceService {
             mColonPaint.setTextSize(textSize);
             mMinPaint.setTextSize(resources.getDimension(R.dimen.small_text_size));
             mColonWidth = mColonPaint.measureText(COLON_STRING);
+            mIconCache.setSize(resources.getDimensionPixelSize(R.dimen.digital_icon_size));
+            updateWeatherIcon();
+            mStaticLayerValid = false;
         }
 
 
@@ -238,6 +316,8 @@ public class WatchFaceService extends CanvasWatchFaceService {
             mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION,
                     false);
             mHourPaint.setTypeface(mBurnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
+            mStaticLayerValid = false;
+            updateWeatherIcon();
 
         }
 
@@ -252,6 +332,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
+            mAmbient = inAmbientMode;
             adjustPaintColorToCurrentMode(mBackgroundPaint, mInteractiveBackgroundColor,
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
             adjustPaintColorToCurrentMode(mHourPaint, mInteractiveHourDigitsColor,
@@ -267,7 +348,11 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 mHourPaint.setAntiAlias(antiAlias);
                 mMinutePaint.setAntiAlias(antiAlias);
                 mColonPaint.setAntiAlias(antiAlias);
+                mMaxPaint.setAntiAlias(antiAlias);
+                mMinPaint.setAntiAlias(antiAlias);
             }
+            updateWeatherIcon();
+            mStaticLayerValid = false;
             invalidate();
             // Whether the timer should be running depends on whether we're in ambient mode (as well
             // as whether we're visible), so we may need to start or stop the timer.
@@ -279,69 +364,139 @@ public class WatchFaceService extends CanvasWatchFaceService {
             paint.setColor(isInAmbientMode() ? ambientColor : interactiveColor);
         }
 
-        private String formatTwoDigitNumber(int hour) {
-            return String.format("%02d", hour);
-        }
-
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
             /* draw your watch face */
+            boolean ambient = isInAmbientMode();
+            FrameStats frameStats = ambient ? mAmbientFrameStats : mInteractiveFrameStats;
+            frameStats.beginFrame();
             long now = System.currentTimeMillis();
+            long minute = now / TEXT_UPDATE_RATE_MS;
+            boolean timeChanged = false;
+            if (minute != mTextMinute) {
+                updateTimeText(now);
+                mTextMinute = minute;
+                timeChanged = true;
+            }
+            if (!mStaticLayerValid || !bounds.equals(mLayoutBounds)) {
+                drawStaticLayer(bounds);
+                timeChanged = true;
+            }
+            if (timeChanged) {
+                mTimeX = bounds.centerX()
+                        - (mHourPaint.measureText(mTimeChars, 0, mTimeChars.length) / 2);
+            }
+
+            // Move the whole face a little every minute, around where it normally is
+            int dx = 0;
+            int dy = 0;
+            if (ambient && mBurnInProtection) {
+                dx = (int) (minute % 3 - 1) * mBurnInShift;
+                dy = (int) (minute / 3 % 3 - 1) * mBurnInShift;
+                canvas.drawColor(Color.BLACK);
+            }
+
+            // Draw the background, the date and the weather.
+            canvas.drawBitmap(mStaticLayer, bounds.left + dx, bounds.top + dy, null);
+
+            // Draw the time.
+            canvas.drawText(mTimeChars, 0, mTimeChars.length, mTimeX + dx, bounds.centerY() + dy,
+                    mHourPaint);
+            frameStats.endFrame();
+        }
+
+        /**
+         * Makes the next frame format the time and the date again, after the time zone or the
+         * locale changed.
+         */
+        private void invalidateText() {
+            mTextMinute = -1;
+            mDateDay = -1;
+        }
+
+        // Fills in the time as HH:MM, and the date when the day has changed
+        private void updateTimeText(long now) {
             mCalendar.setTimeInMillis(now);
             mDate.setTime(now);
 
-            String dateText = String.format(Locale.getDefault(), "%1$tb %1$te, %1$ta", mCalendar);
-            String hourString = formatTwoDigitNumber(mCalendar.get(Calendar.HOUR_OF_DAY));
-            String minuteString = formatTwoDigitNumber(mCalendar.get(Calendar.MINUTE));
-            String timeString = hourString + ":" + minuteString;
+            int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (day != mDateDay) {
+                mDateText = String.format(Locale.getDefault(), "%1$tb %1$te, %1$ta", mCalendar);
+                // The digits String.format("%02d") would use
+                mZeroDigit = DecimalFormatSymbols.getInstance().getZeroDigit();
+                mDateDay = day;
+                mStaticLayerValid = false;
+                // Move on to the new day's forecast
+                showForecast(now);
+            }
 
-            String min = "";
-            String max = "";
-            int iconWidth = 0;
-                min = minTemp + "°";
-                max = maxTemp + "°";
+            int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+            int minute = mCalendar.get(Calendar.MINUTE);
+            mTimeChars[0] = (char) (mZeroDigit + hour / 10);
+            mTimeChars[1] = (char) (mZeroDigit + hour % 10);
+            mTimeChars[2] = ':';
+            mTimeChars[3] = (char) (mZeroDigit + minute / 10);
+            mTimeChars[4] = (char) (mZeroDigit + minute % 10);
+        }
+
+        private void updateTemperatureText() {
+            mMaxText = mHaveWeatherId ? maxTemp + "°" : "";
+            mMinText = mHaveWeatherId ? minTemp + "°" : "";
+            mStaticLayerValid = false;
+        }
+
+        /**
+         * Draws everything but the time into mStaticLayer.  The weather sits under where the
+         * widest time would start, so that it doesn't move when the time does.
+         */
+        private void drawStaticLayer(Rect bounds) {
+            mLayoutBounds.set(bounds);
+            int width = bounds.width();
+            int height = bounds.height();
+            if (mStaticLayer == null
+                    || mStaticLayer.getWidth() != width || mStaticLayer.getHeight() != height) {
+                if (mStaticLayer != null) {
+                    mStaticLayer.recycle();
+                }
+                mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mStaticCanvas = new Canvas(mStaticLayer);
+            }
+            Canvas canvas = mStaticCanvas;
+            boolean ambient = isInAmbientMode();
+            float centerX = width / 2f;
+            float centerY = height / 2f;
 
             // Draw the background.
-            if (isInAmbientMode()) {
+            if (ambient) {
                 canvas.drawColor(Color.BLACK);
             } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+                canvas.drawColor(mBackgroundPaint.getColor());
             }
 
-            float x = bounds.centerX() - (mDatePaint.measureText(dateText) / 2);
-            float y = bounds.centerY() - (mHourPaint.measureText(dateText) / 4);
-
             //  Draw the date
-            canvas.drawText(dateText, x, y, mDatePaint);
-
-            // Draw the time.
-            x = bounds.centerX() - (mHourPaint.measureText(timeString) / 2);
-            canvas.drawText(timeString, x, bounds.centerY(), mHourPaint);
-
+            float dateOffset = mHourPaint.measureText(mDateText) / 4;
+            canvas.drawText(mDateText, centerX - (mDatePaint.measureText(mDateText) / 2),
+                    centerY - dateOffset, mDatePaint);
 
             //Draw Icon and Temperatures
-
-            y = bounds.centerY() + (mHourPaint.measureText(dateText) / 4);
-            //Icon
-            // draw weather icon at x
-            if (weatherIcon != null && !mLowBitAmbient) {
-                canvas.drawBitmap(weatherIcon, x-mDatePaint.measureText("   "), y - weatherIcon.getHeight() / 2, mIconPaint);
-                Log.d(TAG, "onDraw: draw weatherIcon");
-            }
-
-            Log.d(TAG, "onDraw: maxtemp " + maxTemp);
-            // draw weather icon at x
-            float highTempSize = mDatePaint.measureText(Double.toString(maxTemp));
-
-            if(weatherIcon != null) {
+            float weatherX = centerX - (mHourPaint.measureText(WIDEST_TIME) / 2);
+            float weatherY = centerY + dateOffset;
+            int iconWidth = 0;
+            // Leave the icon out where a block of lit pixels could burn in
+            if (weatherIcon != null && !(ambient && mBurnInProtection)) {
+                canvas.drawBitmap(weatherIcon, weatherX - mDatePaint.measureText("   "),
+                        weatherY - weatherIcon.getHeight() / 2, mIconPaint);
                 iconWidth = weatherIcon.getWidth();
             }
+
             //High temp
-            canvas.drawText(max, x + iconWidth, y, mDatePaint);
+            float highTempSize = mDatePaint.measureText(Double.toString(maxTemp));
+            canvas.drawText(mMaxText, weatherX + iconWidth, weatherY, mDatePaint);
 
             //Low temp
-            canvas.drawText(min, x + iconWidth + mDatePaint.measureText(" "), y + (highTempSize/2), mMinPaint);
-
+            canvas.drawText(mMinText, weatherX + iconWidth + mDatePaint.measureText(" "),
+                    weatherY + (highTempSize / 2), mMinPaint);
+            mStaticLayerValid = true;
         }
 
         @Override
@@ -352,12 +507,11 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 registerReceiver();
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                invalidateText();
                 invalidate();
             } else {
-                if (googleApiClient != null && googleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(googleApiClient, this.onDataChangedListener);
-                    googleApiClient.disconnect();
-                }
+                // The phone's forecasts keep arriving while we're hidden, so the face is up to
+                // date when it is shown again
                 unregisterReceiver();
             }
 
@@ -382,29 +536,64 @@ public class WatchFaceService extends CanvasWatchFaceService {
         };
 
         private void processConfigurationFor(DataItem item) {
-            if ("/weather_data".equals(item.getUri().getPath())) {
+            if (WeatherPayload.PATH.equals(item.getUri().getPath())) {
                 DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                if (dataMap.containsKey("HIGH_TEMP")) {
-                    maxTemp = dataMap.getDouble("HIGH_TEMP");
-                    Log.e("HighTemp", maxTemp.toString());
+                long hash = dataMap.getLong(WeatherPayload.KEY_HASH);
+                byte[] bytes = dataMap.getByteArray(WeatherPayload.KEY_PAYLOAD);
+                if (bytes == null || (mForecast != null && hash == mForecastHash)) {
+                    return;
                 }
-
-                if (dataMap.containsKey("LOW_TEMP")) {
-                    minTemp = dataMap.getDouble("LOW_TEMP");
-                    Log.e("LowTemp", minTemp.toString());
+                if (!readForecast(bytes, hash)) {
+                    return;
                 }
+                mForecastStore.write(bytes);
+                showForecast(System.currentTimeMillis());
+                invalidate();
+            }
+        }
 
-                if (dataMap.containsKey("DESC")) {
-                    desc = dataMap.getString("DESC");
-                }
+        private boolean readForecast(byte[] bytes, long hash) {
+            try {
+                mForecast = WeatherPayload.fromBytes(bytes);
+                mForecastHash = hash;
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't read the forecast", e);
+                return false;
+            }
+        }
 
-                if (dataMap.containsKey("ICON")) {
-                    weatherId = dataMap.getInt("ICON");
-                    updateWeatherIcon();
-                    Log.e("Icon", String.valueOf(weatherId));
+        // Shows today's weather from the forecast, if it has today or a day after it
+        private void showForecast(long now) {
+            if (mForecast == null) {
+                return;
+            }
+            int today = Time.getJulianDay(now,
+                    TimeUnit.MILLISECONDS.toSeconds(mCalendar.getTimeZone().getOffset(now)));
+            WeatherPayload.Day day = mForecast.getDay(today);
+            if (day == null) {
+                // The phone may already be a day ahead of us; a forecast for days that are
+                // over isn't worth showing
+                for (WeatherPayload.Day later : mForecast.days) {
+                    if (later.julianDay > today) {
+                        day = later;
+                        break;
+                    }
                 }
-                invalidate();
             }
+            if (day == null) {
+                mHaveWeatherId = false;
+                weatherIcon = null;
+                updateTemperatureText();
+                return;
+            }
+            maxTemp = day.high;
+            minTemp = day.low;
+            desc = day.description;
+            weatherId = day.weatherId;
+            mHaveWeatherId = true;
+            updateWeatherIcon();
+            updateTemperatureText();
         }
 
         private void registerReceiver() {
@@ -458,37 +647,16 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
         }
 
+        // Picks the icon for the weather and the mode the watch is in
         private void updateWeatherIcon() {
-            Resources resources = WatchFaceService.this.getResources();
-            Drawable weatherBitmap;
-
-            if (weatherId >= 200 && weatherId <= 232) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_storm, null);
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_light_rain, null);
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_rain, null);
-            } else if (weatherId == 511) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_snow, null);
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_rain, null);
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_snow, null);
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_fog, null);
-            } else if (weatherId == 761 || weatherId == 781) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_storm, null);
-            } else if (weatherId == 800) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_clear, null);
-            } else if (weatherId == 801) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_light_clouds, null);
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                weatherBitmap = resources.getDrawable(R.drawable.ic_cloudy, null);
-            } else { //default
-                weatherBitmap = resources.getDrawable(R.drawable.ic_clear, null);
+            if (!mHaveWeatherId) {
+                return;
             }
-
-            weatherIcon = ((BitmapDrawable) weatherBitmap).getBitmap();
+            int variant = !isInAmbientMode() ? WeatherIconCache.INTERACTIVE
+                    : mLowBitAmbient ? WeatherIconCache.LOW_BIT_AMBIENT
+                    : WeatherIconCache.AMBIENT;
+            weatherIcon = mIconCache.get(WeatherConditions.getCondition(weatherId), variant);
+            mStaticLayerValid = false;
         }
         private final ResultCallback<DataItemBuffer> onConnectedResultCallback = new ResultCallback<DataItemBuffer>() {
             @Override
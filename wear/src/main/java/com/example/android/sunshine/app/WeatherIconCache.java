@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+
+/**
+ * The weather icons of the watch face, each decoded once and scaled to the size the face draws
+ * it at, so that new weather only has to look up a bitmap.  Besides the full colour icon there
+ * is a grey one for ambient mode and a pure white one for screens that only have one bit per
+ * colour in ambient mode.
+ */
+final class WeatherIconCache {
+
+    static final int INTERACTIVE = 0;
+    static final int AMBIENT = 1;
+    static final int LOW_BIT_AMBIENT = 2;
+    private static final int VARIANT_COUNT = 3;
+
+    // How bright a pixel has to be to stay lit on a low-bit screen, out of 255
+    private static final int LOW_BIT_THRESHOLD = 128;
+
+    private final Resources mResources;
+    // The icon of each kind of WeatherConditions
+    private final int[] mIconResources;
+    private final Bitmap[][] mIcons;
+    private int mSize;
+
+    WeatherIconCache(Resources resources, int[] iconResources) {
+        mResources = resources;
+        mIconResources = iconResources;
+        mIcons = new Bitmap[VARIANT_COUNT][iconResources.length];
+    }
+
+    /**
+     * Sets the width and height in pixels of the icons {@link #get} returns, dropping any
+     * icons of another size.
+     */
+    void setSize(int size) {
+        if (size == mSize) {
+            return;
+        }
+        clear();
+        mSize = size;
+    }
+
+    /**
+     * Returns the icon of a kind of WeatherConditions, or null before the size is known.
+     */
+    Bitmap get(int condition, int variant) {
+        if (mSize <= 0) {
+            return null;
+        }
+        Bitmap icon = mIcons[variant][condition];
+        if (icon == null) {
+            switch (variant) {
+                case AMBIENT:
+                    icon = toGrey(get(condition, INTERACTIVE));
+                    break;
+                case LOW_BIT_AMBIENT:
+                    icon = toLowBit(get(condition, AMBIENT));
+                    break;
+                default:
+                    icon = decode(mIconResources[condition]);
+                    break;
+            }
+            mIcons[variant][condition] = icon;
+        }
+        return icon;
+    }
+
+    /**
+     * Lets go of every icon.
+     */
+    void clear() {
+        for (Bitmap[] icons : mIcons) {
+            for (int i = 0; i < icons.length; i++) {
+                if (icons[i] != null) {
+                    icons[i].recycle();
+                    icons[i] = null;
+                }
+            }
+        }
+    }
+
+    private Bitmap decode(int resource) {
+        // Decode the pixels as they are, rather than scaled for the density and scaled again
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        Bitmap decoded = BitmapFactory.decodeResource(mResources, resource, options);
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, mSize, mSize, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private static Bitmap toGrey(Bitmap icon) {
+        Bitmap grey = Bitmap.createBitmap(icon.getWidth(), icon.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        new Canvas(grey).drawBitmap(icon, 0, 0, paint);
+        return grey;
+    }
+
+    private static Bitmap toLowBit(Bitmap greyIcon) {
+        int width = greyIcon.getWidth();
+        int height = greyIcon.getHeight();
+        int[] pixels = new int[width * height];
+        greyIcon.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            int brightness = Color.red(pixel) * Color.alpha(pixel) / 255;
+            pixels[i] = brightness >= LOW_BIT_THRESHOLD ? Color.WHITE : Color.TRANSPARENT;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}